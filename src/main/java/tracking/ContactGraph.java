@@ -0,0 +1,232 @@
+package tracking;
+
+import zoo.animal.Animal;
+import zoo.animal.DiseaseNote;
+
+import java.util.*;
+
+/**
+ * Временной граф контактов для отслеживания цепочек заражения.
+ * Вершины - сотрудники и животные, рёбра - контакты с началом и концом.
+ * Рёбра каждой вершины хранятся по возрастанию конца, поэтому при обходе
+ * контакты, закончившиеся до заражения вершины, отбрасываются двоичным поиском.
+ * Контакт, начавшийся не позже конца промежутка, заканчивается не позже
+ * него плюс самый длинный контакт вершины: дальше просмотр не идёт.
+ * <p>
+ * Обход учитывает время: зараза переходит по контакту, только если
+ * контакт продолжался после заражения вершины, и переходит не раньше
+ * начала контакта. Для каждого объекта находится самое раннее время заражения.
+ * <p>
+ * Граф пополняется подпиской ({@code service.subscribe(graph)}) или
+ * методом {@link #add(Interaction)}; {@link #of(TrackingService)} собирает
+ * граф по уже накопленной истории сервиса. Запросы можно выполнять из других потоков.
+ */
+public class ContactGraph implements TrackingListener {
+
+    /** Объекты графа */
+    private final List<Tracked> nodes;
+    /** Номера объектов */
+    private final Map<Tracked, Integer> numbers;
+    /** Завершённые контакты каждого объекта */
+    private final List<Edges> edges;
+    /** Незавершённые контакты каждого объекта */
+    private final Map<Tracked, Set<Interaction>> open;
+
+
+    public ContactGraph() {
+        nodes = new ArrayList<>();
+        numbers = new HashMap<>();
+        edges = new ArrayList<>();
+        open = new HashMap<>();
+    }
+
+    /**
+     * Граф по истории сервиса: завершённые и текущие контакты
+     * @param service сервис отслеживания
+     * @return граф; чтобы он пополнялся дальше, его нужно подписать на сервис
+     */
+    public static ContactGraph of(TrackingService service) {
+        ContactGraph graph = new ContactGraph();
+        for (Interaction interaction : service.getInteractions()) {
+            graph.add(interaction);
+        }
+        for (Interaction interaction : service.getEmployeeInteractions()) {
+            graph.add(interaction);
+        }
+        for (Interaction interaction : service.getCurrentInteractions()) {
+            graph.add(interaction);
+        }
+        return graph;
+    }
+
+
+    //=========== События сервиса ===========//
+    @Override
+    public synchronized void contactOpened(Interaction interaction) {
+        add(interaction);
+    }
+    @Override
+    public synchronized void contactClosed(Interaction interaction) {
+        add(interaction);
+    }
+    //=======================================//
+
+
+    /**
+     * Добавление контакта; незавершённый контакт считается продолжающимся,
+     * пока не будет добавлен снова с установленным концом
+     * @param interaction взаимодействие
+     */
+    public synchronized void add(Interaction interaction) {
+        if (interaction.getEnd() == null) {
+            open.computeIfAbsent(interaction.trackedA(), key -> new LinkedHashSet<>()).add(interaction);
+            open.computeIfAbsent(interaction.trackedB(), key -> new LinkedHashSet<>()).add(interaction);
+            return;
+        }
+        forget(interaction.trackedA(), interaction);
+        forget(interaction.trackedB(), interaction);
+        int a = number(interaction.trackedA());
+        int b = number(interaction.trackedB());
+        long begin = interaction.getBegin().getTime();
+        long end = interaction.getEnd().getTime();
+        edges.get(a).add(b, begin, end);
+        edges.get(b).add(a, begin, end);
+    }
+
+
+    //=========== Запросы ===========//
+    /**
+     * Все объекты, заражённые по цепочкам контактов от {@code source},
+     * если он заразен с момента {@code from} до момента {@code to}
+     * @param source источник
+     * @param from начало промежутка
+     * @param to конец промежутка
+     * @return объекты и самое раннее время их заражения, в порядке заражения;
+     * источник не входит
+     */
+    public synchronized Map<Tracked, Date> trace(Tracked source, Date from, Date to) {
+        long limit = to.getTime();
+        Map<Tracked, Long> arrival = new HashMap<>();
+        Map<Tracked, Date> exposed = new LinkedHashMap<>();
+        /* Очередь: время заражения и объект; устаревшие записи пропускаются */
+        PriorityQueue<Object[]> queue = new PriorityQueue<>(
+                Comparator.comparingLong((Object[] entry) -> (Long) entry[0]));
+        arrival.put(source, from.getTime());
+        queue.add(new Object[] {from.getTime(), source});
+        while (!queue.isEmpty()) {
+            Object[] entry = queue.poll();
+            long time = (Long) entry[0];
+            Tracked tracked = (Tracked) entry[1];
+            if (time != arrival.get(tracked)) {
+                continue;
+            }
+            if (tracked != source) {
+                exposed.put(tracked, new Date(time));
+            }
+            Integer number = numbers.get(tracked);
+            if (number != null) {
+                Edges list = edges.get(number);
+                long stop = limit > Long.MAX_VALUE - list.longest ? Long.MAX_VALUE : limit + list.longest;
+                for (int i = list.firstEndingAfter(time); i < list.size && list.ends[i] <= stop; i++) {
+                    long begin = list.begins[i];
+                    if (begin <= limit) {
+                        relax(nodes.get(list.others[i]), Math.max(begin, time), arrival, queue);
+                    }
+                }
+            }
+            for (Interaction interaction : open.getOrDefault(tracked, Collections.emptySet())) {
+                long begin = interaction.getBegin().getTime();
+                if (begin <= limit) {
+                    Tracked other = interaction.trackedA() == tracked
+                            ? interaction.trackedB() : interaction.trackedA();
+                    relax(other, Math.max(begin, time), arrival, queue);
+                }
+            }
+        }
+        return exposed;
+    }
+    /**
+     * Все объекты, заражённые от животного с момента заболевания до {@code to}
+     * @param animal животное
+     * @param note запись о болезни
+     * @param to конец промежутка
+     * @return объекты и самое раннее время их заражения, в порядке заражения
+     */
+    public Map<Tracked, Date> trace(Animal animal, DiseaseNote note, Date to) {
+        return trace(animal, note.getTime(), to);
+    }
+    //===============================//
+
+
+    private static void relax(Tracked other, long time, Map<Tracked, Long> arrival,
+                              PriorityQueue<Object[]> queue) {
+        Long known = arrival.get(other);
+        if (known == null || time < known) {
+            arrival.put(other, time);
+            queue.add(new Object[] {time, other});
+        }
+    }
+    private void forget(Tracked tracked, Interaction interaction) {
+        Set<Interaction> interactions = open.get(tracked);
+        if (interactions != null && interactions.remove(interaction) && interactions.isEmpty()) {
+            open.remove(tracked);
+        }
+    }
+    private int number(Tracked tracked) {
+        Integer number = numbers.get(tracked);
+        if (number == null) {
+            number = nodes.size();
+            nodes.add(tracked);
+            numbers.put(tracked, number);
+            edges.add(new Edges());
+        }
+        return number;
+    }
+
+
+    /** Контакты одного объекта по возрастанию конца */
+    private static class Edges {
+
+        private int[] others = new int[4];
+        private long[] begins = new long[4];
+        private long[] ends = new long[4];
+        private int size;
+        /** Самая большая длительность контакта */
+        private long longest;
+
+        /* Контакты приходят почти по порядку конца: вставка с конца */
+        void add(int other, long begin, long end) {
+            if (size == others.length) {
+                others = Arrays.copyOf(others, size * 2);
+                begins = Arrays.copyOf(begins, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            longest = Math.max(longest, end - begin);
+            int i = size;
+            while (i > 0 && ends[i - 1] > end) {
+                others[i] = others[i - 1];
+                begins[i] = begins[i - 1];
+                ends[i] = ends[i - 1];
+                i--;
+            }
+            others[i] = other;
+            begins[i] = begin;
+            ends[i] = end;
+            size++;
+        }
+        /** Первый контакт, закончившийся не раньше {@code time} */
+        int firstEndingAfter(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (ends[middle] < time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
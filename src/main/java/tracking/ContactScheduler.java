@@ -0,0 +1,268 @@
+package tracking;
+
+import zoo.animal.Animal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Планировщик проверок контактов по наибольшим скоростям объектов.
+ * Поиск соседей просматривает блок 3 x 3 ячейки вокруг объекта; по нему же
+ * объект получает свободный радиус: расстояние до ближайшего возможного
+ * партнёра в блоке или до края блока, за вычетом расстояния контакта.
+ * Пока собственное смещение объекта и наибольший путь, который мог пройти
+ * любой другой объект, вместе меньше радиуса, контакт начаться не может,
+ * и поиск соседей для объекта пропускается. Радиус живёт не дольше горизонта.
+ * <p>
+ * Скорость сотрудников задаётся одна на всех, скорость животных - по виду
+ * (названию). Объект без заданной скорости считается сколь угодно быстрым,
+ * и пока такой объект отслеживается, проверки не пропускаются. Смещение
+ * объекта сравнивается со временем, прошедшим с прошлого поиска соседей,
+ * а не с прошлого измерения объекта. Измерение, из которого следует
+ * скорость выше заданной, сбрасывает радиусы всех, чей свободный круг
+ * мог задеть новое местоположение объекта.
+ * <p>
+ * Подключается к сервису методом {@link TrackingService#setContactScheduler(ContactScheduler)}.
+ * Местоположения должны приходить через методы сервиса.
+ */
+public class ContactScheduler {
+
+    /** Горизонт по умолчанию, нс */
+    public static final long DEFAULT_HORIZON = TimeUnit.SECONDS.toNanos(5);
+    private static final double NANOS = TimeUnit.SECONDS.toNanos(1);
+
+
+    /** Скорость сотрудников, м/с */
+    private final double employeeSpeed;
+    /** Скорости животных по видам, м/с */
+    private final Map<String, Double> speeds;
+    /** Наибольший срок радиуса, нс */
+    private final long horizon;
+
+    /* Радиус объекта: местоположение и часы сервиса при расчёте */
+    private double[] anchorX = new double[16];
+    private double[] anchorY = new double[16];
+    private long[] anchorClock = new long[16];
+    /** Свободный радиус; {@code NaN} - радиуса нет, нужен поиск */
+    private double[] radius = new double[16];
+    /** Наибольшая скорость каждого объекта, м/с; {@code null} - нужно пересчитать */
+    private double[] speedOf;
+    /** Объекты, нарушившие скорость с прошлого поиска соседей */
+    private final IntList violations = new IntList();
+    /** Часы сервиса: самое позднее время измерения */
+    private long clock = Long.MIN_VALUE;
+    /** Часы сервиса при прошлом поиске соседей */
+    private long searchClock = Long.MIN_VALUE;
+    /** Наибольший выданный радиус */
+    private double widest;
+    /** Наибольшая скорость среди отслеживаемых объектов, м/с */
+    private double fastest;
+
+    /** Количество пропущенных поисков */
+    private long skipped;
+    /** Количество выполненных поисков */
+    private long searched;
+
+
+    /**
+     * Планировщик с горизонтом 5 с
+     * @param employeeSpeed наибольшая скорость сотрудников, м/с
+     */
+    public ContactScheduler(double employeeSpeed) {
+        this(employeeSpeed, DEFAULT_HORIZON);
+    }
+    /**
+     * Планировщик
+     * @param employeeSpeed наибольшая скорость сотрудников, м/с
+     * @param horizon наибольший срок радиуса, нс
+     */
+    public ContactScheduler(double employeeSpeed, long horizon) {
+        if (!(employeeSpeed >= 0) || horizon <= 0) {
+            throw new IllegalArgumentException("employeeSpeed=" + employeeSpeed +
+                    ", horizon=" + horizon);
+        }
+        this.employeeSpeed = employeeSpeed;
+        this.horizon = horizon;
+        speeds = new HashMap<>();
+        Arrays.fill(radius, Double.NaN);
+    }
+
+
+    /**
+     * Наибольшая скорость животных вида
+     * @param species вид (название животного)
+     * @param speed скорость, м/с
+     */
+    public synchronized void setSpeed(String species, double speed) {
+        if (!(speed >= 0)) {
+            throw new IllegalArgumentException("speed=" + speed);
+        }
+        speeds.put(species, speed);
+        reset();
+    }
+    /**
+     * Наибольшая скорость объекта
+     * @param tracked объект
+     * @return скорость, м/с; бесконечность, если не задана
+     */
+    public synchronized double speed(Tracked tracked) {
+        if (!(tracked instanceof Animal)) {
+            return employeeSpeed;
+        }
+        Double speed = speeds.get(((Animal) tracked).getName());
+        return speed == null ? Double.POSITIVE_INFINITY : speed;
+    }
+    public synchronized long getSkipped() {
+        return skipped;
+    }
+    public synchronized long getSearched() {
+        return searched;
+    }
+
+
+    /** Сброс всех радиусов и скоростей: состав объектов или скорости изменились */
+    synchronized void reset() {
+        Arrays.fill(radius, Double.NaN);
+        speedOf = null;
+        violations.clear();
+        widest = 0;
+    }
+    /**
+     * Новое измерение объекта: проверка скорости относительно предыдущего.
+     * Путь считается от прошлого поиска соседей, если прежнее измерение
+     * старше него, поэтому все смещения объекта после расчёта радиуса
+     * в сумме не длиннее пути за прошедшее с тех пор время.
+     * @param handle строка объекта
+     * @param table таблица местоположений
+     * @param fromX прежнее местоположение по OX
+     * @param fromY прежнее местоположение по OY
+     * @param fromTime время прежнего измерения, нс
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    synchronized void fix(int handle, PositionTable table, double fromX, double fromY, long fromTime,
+                          double x, double y, long time) {
+        clock = Math.max(clock, time);
+        ensure(handle);
+        long elapsed = Math.max(0, time - Math.max(fromTime, searchClock));
+        if (Math.hypot(x - fromX, y - fromY) > speeds(table)[handle] * elapsed / NANOS) {
+            radius[handle] = Double.NaN;
+            violations.add(handle);
+        }
+    }
+    /**
+     * Сброс радиусов вокруг новых местоположений объектов, нарушивших
+     * скорость: объект с радиусом не дальше радиуса от центра своего круга,
+     * поэтому задетые круги лежат в пределах двух наибольших радиусов
+     * и расстояния контакта
+     * @param table таблица местоположений
+     * @param grid сетка, уже обновлённая на этом такте
+     * @param cellSize сторона ячейки сетки
+     * @param contact расстояние контакта
+     */
+    synchronized void invalidate(PositionTable table, SpatialGrid grid, double cellSize, double contact) {
+        searchClock = clock;
+        int span = (int) Math.ceil((2 * widest + contact) / cellSize);
+        for (int v = 0; v < violations.size(); v++) {
+            int handle = violations.get(v);
+            if (table.kind(handle) == PositionTable.REMOVED) {
+                continue;
+            }
+            int column = grid.cell(table.x(handle));
+            int row = grid.cell(table.y(handle));
+            for (int i = column - span; i <= column + span; i++) {
+                for (int j = row - span; j <= row + span; j++) {
+                    int cell = grid.find(i, j);
+                    if (cell < 0) {
+                        continue;
+                    }
+                    for (int k = 0; k < grid.count(cell); k++) {
+                        int neighbour = grid.item(cell, k);
+                        ensure(neighbour);
+                        radius[neighbour] = Double.NaN;
+                    }
+                }
+            }
+        }
+        violations.clear();
+    }
+    /**
+     * Можно ли пропустить поиск соседей объекта на этом такте
+     * @param handle строка объекта
+     * @param table таблица местоположений
+     * @return {@code true}, если контакт начаться не мог
+     */
+    synchronized boolean skip(int handle, PositionTable table) {
+        ensure(handle);
+        double free = radius[handle];
+        long elapsed = clock - anchorClock[handle];
+        if (Double.isNaN(free) || elapsed > horizon) {
+            searched++;
+            return false;
+        }
+        speeds(table);
+        double moved = Math.hypot(table.x(handle) - anchorX[handle], table.y(handle) - anchorY[handle]);
+        double others = fastest * elapsed / NANOS;
+        if (moved + others < free) {
+            skipped++;
+            return true;
+        }
+        searched++;
+        return false;
+    }
+    /**
+     * Свободный радиус по итогам поиска соседей в блоке 3 x 3 ячейки.
+     * Вызывается потоком сервиса после поиска пар, в том числе параллельного
+     * @param handle строка объекта
+     * @param table таблица местоположений
+     * @param clear расстояние до ближайшего возможного партнёра в блоке
+     *              или до края блока, если оно меньше
+     * @param contact расстояние контакта
+     */
+    synchronized void anchor(int handle, PositionTable table, double clear, double contact) {
+        ensure(handle);
+        double free = clear - contact;
+        anchorX[handle] = table.x(handle);
+        anchorY[handle] = table.y(handle);
+        anchorClock[handle] = clock;
+        radius[handle] = free > 0 ? free : Double.NaN;
+        widest = Math.max(widest, free);
+    }
+
+
+    /**
+     * Скорости объектов по строкам таблицы; пересчитываются после сброса
+     * или при появлении новых строк
+     * @param table таблица местоположений
+     * @return скорости, м/с
+     */
+    private double[] speeds(PositionTable table) {
+        if (speedOf != null && speedOf.length >= table.size()) {
+            return speedOf;
+        }
+        speedOf = new double[Math.max(table.size(), radius.length)];
+        fastest = 0;
+        for (int handle = 0; handle < table.size(); handle++) {
+            if (table.kind(handle) != PositionTable.REMOVED) {
+                speedOf[handle] = speed(table.tracked(handle));
+                fastest = Math.max(fastest, speedOf[handle]);
+            }
+        }
+        return speedOf;
+    }
+    private void ensure(int handle) {
+        if (handle < radius.length) {
+            return;
+        }
+        int capacity = Math.max(handle + 1, radius.length * 2);
+        anchorX = Arrays.copyOf(anchorX, capacity);
+        anchorY = Arrays.copyOf(anchorY, capacity);
+        anchorClock = Arrays.copyOf(anchorClock, capacity);
+        int old = radius.length;
+        radius = Arrays.copyOf(radius, capacity);
+        Arrays.fill(radius, old, capacity, Double.NaN);
+    }
+}
@@ -0,0 +1,69 @@
+package tracking;
+
+/** Приход или уход сотрудника */
+public final class EmployeeAction {
+
+    /** Вид события */
+    public enum Type {
+        /** Сотрудник вошёл в зоопарк */
+        ENTER,
+        /** Сотрудник вышел из зоопарка */
+        LEAVE
+    }
+
+
+    /** Номер строки сотрудника в таблице местоположений */
+    private final int handle;
+    /** Сотрудник */
+    private final Tracked employee;
+    /** Время события, нс */
+    private final long time;
+    /** Вид события */
+    private final Type type;
+
+
+    EmployeeAction(int handle, Tracked employee, long time, Type type) {
+        this.handle = handle;
+        this.employee = employee;
+        this.time = time;
+        this.type = type;
+    }
+
+
+    public int getHandle() {
+        return handle;
+    }
+    public Tracked getEmployee() {
+        return employee;
+    }
+    /**
+     * Время события
+     * @return время, нс
+     */
+    public long getTime() {
+        return time;
+    }
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Запись в прежнем текстовом виде: дата, идентификатор и действие
+     * @return строка
+     */
+    @Override
+    public String toString() {
+        return format(employee, time, type);
+    }
+    /**
+     * Форматирование записи журнала
+     * @param employee сотрудник
+     * @param time время, нс
+     * @param type вид события
+     * @return строка
+     */
+    static String format(Tracked employee, long time, Type type) {
+        return EventTime.toDate(time) + " | " + employee.getId() +
+                (type == Type.LEAVE ? " left the zoo" : " entered the zoo");
+    }
+}
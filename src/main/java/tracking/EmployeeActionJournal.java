@@ -0,0 +1,165 @@
+package tracking;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Журнал приходов и уходов сотрудников.
+ * Записи хранятся столбцами примитивов (номер строки сотрудника, время, вид),
+ * текст записи формируется только при обращении к {@link #asText()}.
+ */
+public class EmployeeActionJournal {
+
+    private static final EmployeeAction.Type[] TYPES = EmployeeAction.Type.values();
+
+    /** Таблица, по которой номера строк переводятся в сотрудников */
+    private final PositionTable table;
+    /** Номера строк сотрудников */
+    private int[] handles;
+    /** Время событий, нс */
+    private long[] times;
+    /** Виды событий */
+    private byte[] types;
+    /** Количество записей */
+    private int size;
+    /** Представление в виде событий */
+    private final List<EmployeeAction> actions;
+    /** Представление в виде строк */
+    private final List<String> text;
+
+
+    /**
+     * Пустой журнал
+     * @param table таблица местоположений сервиса
+     */
+    EmployeeActionJournal(PositionTable table) {
+        this.table = table;
+        handles = new int[16];
+        times = new long[16];
+        types = new byte[16];
+        actions = new ActionList();
+        text = new TextList();
+    }
+
+
+    /**
+     * Добавление записи
+     * @param handle номер строки сотрудника
+     * @param time время, нс
+     * @param type вид события
+     */
+    void add(int handle, long time, EmployeeAction.Type type) {
+        table.pin(handle);
+        if (size == handles.length) {
+            handles = Arrays.copyOf(handles, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+            types = Arrays.copyOf(types, size * 2);
+        }
+        handles[size] = handle;
+        times[size] = time;
+        types[size] = (byte) type.ordinal();
+        size++;
+    }
+
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    /**
+     * Номер строки сотрудника
+     * @param index номер записи
+     * @return номер строки в таблице местоположений
+     */
+    public int handle(int index) {
+        checkIndex(index);
+        return handles[index];
+    }
+    /**
+     * Время события
+     * @param index номер записи
+     * @return время, нс
+     */
+    public long time(int index) {
+        checkIndex(index);
+        return times[index];
+    }
+    /**
+     * Вид события
+     * @param index номер записи
+     * @return вид
+     */
+    public EmployeeAction.Type type(int index) {
+        checkIndex(index);
+        return TYPES[types[index]];
+    }
+    /**
+     * Сотрудник
+     * @param index номер записи
+     * @return сотрудник
+     */
+    public Tracked employee(int index) {
+        return table.tracked(handle(index));
+    }
+    /**
+     * Представление журнала в виде списка событий только для чтения.
+     * Каждый вызов {@code get} создаёт новый {@link EmployeeAction}.
+     * @return список
+     */
+    public List<EmployeeAction> asList() {
+        return actions;
+    }
+    /**
+     * Представление журнала в виде строк только для чтения
+     * в формате "дата | идентификатор действие".
+     * Строка формируется при каждом вызове {@code get}.
+     * @return список
+     */
+    public List<String> asText() {
+        return text;
+    }
+
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+
+    /** Список событий */
+    private class ActionList extends AbstractList<EmployeeAction> {
+
+        @Override
+        public EmployeeAction get(int index) {
+            return new EmployeeAction(handle(index), employee(index), time(index), type(index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /** Список строк для совместимости с прежним журналом */
+    private class TextList extends AbstractList<String> {
+
+        @Override
+        public String get(int index) {
+            return EmployeeAction.format(employee(index), time(index), type(index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
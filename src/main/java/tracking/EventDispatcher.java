@@ -0,0 +1,170 @@
+package tracking;
+
+import zoo.IllegalAction;
+import zoo.employee.Employee;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Рассылка событий подписчикам.
+ * События копятся в очереди ограниченного размера и рассылаются пакетом
+ * в конце проверки контактов; при заполнении очереди пакет рассылается сразу.
+ * Пока подписчиков нет, события не копятся.
+ * Исключение подписчика не прерывает рассылку и проверку контактов:
+ * оно учитывается в счётчике, а остальные события и подписчики
+ * обрабатываются как обычно.
+ */
+class EventDispatcher {
+
+    /* Виды событий */
+    static final byte CONTACT_OPENED = 1;
+    static final byte CONTACT_CLOSED = 2;
+    static final byte SHIFT_BEGIN = 3;
+    static final byte SHIFT_END = 4;
+    static final byte ILLEGAL_ACTION = 5;
+    static final byte ZONE_ENTERED = 6;
+    static final byte ZONE_EXITED = 7;
+
+    /** Подписчики; подписываться можно из любого потока */
+    private final List<TrackingListener> listeners;
+    /** Виды накопленных событий */
+    private final byte[] kinds;
+    /** Предметы событий: взаимодействие, сотрудник или нарушение */
+    private final Object[] subjects;
+    /** Вторые предметы событий: зона */
+    private final Object[] extras;
+    /** Даты событий смены и зон */
+    private final Date[] dates;
+    /** Количество накопленных событий */
+    private int size;
+    /** Количество исключений подписчиков */
+    private long failures;
+    /** Последнее исключение подписчика */
+    private RuntimeException lastFailure;
+
+
+    /**
+     * Рассылка
+     * @param capacity размер очереди
+     */
+    EventDispatcher(int capacity) {
+        listeners = new CopyOnWriteArrayList<>();
+        kinds = new byte[capacity];
+        subjects = new Object[capacity];
+        extras = new Object[capacity];
+        dates = new Date[capacity];
+    }
+
+
+    void subscribe(TrackingListener listener) {
+        listeners.add(listener);
+    }
+    void unsubscribe(TrackingListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Постановка события в очередь
+     * @param kind вид события
+     * @param subject предмет события
+     * @param date дата события смены или {@code null}
+     */
+    void add(byte kind, Object subject, Date date) {
+        add(kind, subject, null, date);
+    }
+    /**
+     * Постановка события с двумя предметами в очередь
+     * @param kind вид события
+     * @param subject предмет события
+     * @param extra второй предмет события
+     * @param date дата события или {@code null}
+     */
+    void add(byte kind, Object subject, Object extra, Date date) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        if (size == kinds.length) {
+            flush();
+        }
+        kinds[size] = kind;
+        subjects[size] = subject;
+        extras[size] = extra;
+        dates[size] = date;
+        size++;
+    }
+    /**
+     * Рассылка накопленных событий. Очередь копируется и очищается до
+     * рассылки, поэтому события, поставленные подписчиком, уйдут следующим пакетом
+     */
+    void flush() {
+        if (size == 0) {
+            return;
+        }
+        int count = size;
+        byte[] kinds = Arrays.copyOf(this.kinds, count);
+        Object[] subjects = Arrays.copyOf(this.subjects, count);
+        Object[] extras = Arrays.copyOf(this.extras, count);
+        Date[] dates = Arrays.copyOf(this.dates, count);
+        Arrays.fill(this.subjects, 0, count, null);
+        Arrays.fill(this.extras, 0, count, null);
+        Arrays.fill(this.dates, 0, count, null);
+        size = 0;
+
+        for (TrackingListener listener : listeners) {
+            for (int i = 0; i < count; i++) {
+                try {
+                    deliver(listener, kinds[i], subjects[i], extras[i], dates[i]);
+                } catch (RuntimeException e) {
+                    failures++;
+                    lastFailure = e;
+                }
+            }
+        }
+    }
+    /**
+     * Количество исключений, выброшенных подписчиками
+     * @return количество
+     */
+    long getFailures() {
+        return failures;
+    }
+    /**
+     * Последнее исключение подписчика
+     * @return исключение или {@code null}
+     */
+    RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    private static void deliver(TrackingListener listener, byte kind, Object subject,
+                                Object extra, Date date) {
+        switch (kind) {
+            case CONTACT_OPENED:
+                listener.contactOpened((Interaction) subject);
+                break;
+            case CONTACT_CLOSED:
+                listener.contactClosed((Interaction) subject);
+                break;
+            case SHIFT_BEGIN:
+                listener.shiftBegin((Employee) subject, date);
+                break;
+            case SHIFT_END:
+                listener.shiftEnd((Employee) subject, date);
+                break;
+            case ILLEGAL_ACTION:
+                listener.illegalAction((IllegalAction) subject);
+                break;
+            case ZONE_ENTERED:
+                listener.zoneEntered((Tracked) subject, (Zone) extra, date);
+                break;
+            case ZONE_EXITED:
+                listener.zoneExited((Tracked) subject, (Zone) extra, date);
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package tracking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Журнал событий сервиса на диске.
+ * События записываются только в конец записями фиксированного размера
+ * в файлы-сегменты одинаковой длины, отображённые в память
+ * ({@link MappedByteBuffer}): запись идёт прямо в отображение, без
+ * промежуточных буферов в куче. Заполненный сегмент сбрасывается на диск
+ * и закрывается, последний (хвост) остаётся отображённым и читается из памяти.
+ * Объекты в записях задаются идентификаторами датчиков.
+ * <p>
+ * Формат записи ({@value #RECORD} байт): тип (1 байт), 3 байта резерва,
+ * датчик A (int), датчик B (int, -1 - нет), 4 байта резерва,
+ * время, нс (long), x (double), y (double). Сегмент заполняется нулями,
+ * поэтому запись с типом 0 означает конец журнала.
+ */
+public class EventLog implements Closeable {
+
+    /** Размер записи, байт */
+    public static final int RECORD = 40;
+
+    /** Новое местоположение объекта */
+    public static final byte FIX = 1;
+    /** Начало контакта */
+    public static final byte CONTACT_BEGIN = 2;
+    /** Конец контакта */
+    public static final byte CONTACT_END = 3;
+    /** Приход сотрудника в зоопарк */
+    public static final byte ENTER = 4;
+    /** Уход сотрудника из зоопарка */
+    public static final byte LEAVE = 5;
+    /** Незаконное действие */
+    public static final byte ILLEGAL = 6;
+
+    /* Смещения полей внутри записи */
+    private static final int TYPE = 0;
+    private static final int SENSOR_A = 4;
+    private static final int SENSOR_B = 8;
+    private static final int TIME = 16;
+    private static final int X = 24;
+    private static final int Y = 32;
+
+    /** Расширение файлов сегментов */
+    private static final String SUFFIX = ".seg";
+
+
+    /** Каталог сегментов */
+    private final Path directory;
+    /** Количество записей в сегменте */
+    private final int segmentRecords;
+    /** Номер текущего сегмента */
+    private long segment;
+    /** Отображение текущего сегмента */
+    private MappedByteBuffer tail;
+    /** Количество записей в журнале */
+    private long size;
+
+
+    /**
+     * Открытие журнала: если в каталоге уже есть сегменты,
+     * запись продолжается после последней сохранённой
+     * @param directory каталог сегментов
+     * @param segmentRecords количество записей в сегменте; сегмент отображается
+     * одним {@link MappedByteBuffer}, поэтому он не длиннее {@link Integer#MAX_VALUE} байт
+     * @throws IOException если каталог недоступен
+     * @throws IllegalArgumentException если сегмент слишком велик или сегменты
+     * каталога другого размера
+     */
+    public EventLog(Path directory, int segmentRecords) throws IOException {
+        if (segmentRecords < 1 || segmentRecords > Integer.MAX_VALUE / RECORD) {
+            throw new IllegalArgumentException("segmentRecords=" + segmentRecords);
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        Files.createDirectories(directory);
+
+        List<Long> segments = segments();
+        for (long number : segments) {
+            if (Files.size(path(number)) != segmentBytes()) {
+                throw new IllegalArgumentException(path(number) + " is not a segment of " +
+                        segmentRecords + " records");
+            }
+        }
+        segment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+        tail = map(segment, FileChannel.MapMode.READ_WRITE);
+        size = segment * segmentRecords + end(tail);
+    }
+
+
+    //=========== Запись событий ===========//
+    /**
+     * Запись нового местоположения
+     * @param sensorId датчик объекта
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    public void fix(int sensorId, double x, double y, long time) {
+        append(FIX, sensorId, -1, time, x, y);
+    }
+    /**
+     * Запись события двух объектов (контакт, нарушение)
+     * @param type тип события
+     * @param sensorA датчик первого объекта
+     * @param sensorB датчик второго объекта
+     * @param time время события, нс
+     */
+    public void pair(byte type, int sensorA, int sensorB, long time) {
+        append(type, sensorA, sensorB, time, 0, 0);
+    }
+    /**
+     * Запись события одного объекта (приход, уход)
+     * @param type тип события
+     * @param sensorId датчик объекта
+     * @param time время события, нс
+     */
+    public void single(byte type, int sensorId, long time) {
+        append(type, sensorId, -1, time, 0, 0);
+    }
+    /**
+     * Запись в конец журнала
+     * @param type тип события
+     * @param sensorA датчик первого объекта
+     * @param sensorB датчик второго объекта или -1
+     * @param time время, нс
+     * @param x по OX
+     * @param y по OY
+     * @throws IllegalStateException если журнал закрыт
+     */
+    public void append(byte type, int sensorA, int sensorB, long time, double x, double y) {
+        if (type == 0) {
+            throw new IllegalArgumentException("Record type 0 marks the end of the log");
+        }
+        if (tail == null) {
+            throw new IllegalStateException("closed");
+        }
+        int offset = (int) (size % segmentRecords);
+        if (offset == 0 && size > 0) {
+            roll();
+        }
+        int at = offset * RECORD;
+        tail.putInt(at + SENSOR_A, sensorA);
+        tail.putInt(at + SENSOR_B, sensorB);
+        tail.putLong(at + TIME, time);
+        tail.putDouble(at + X, x);
+        tail.putDouble(at + Y, y);
+        /* Тип пишется последним: запись без типа при чтении считается концом */
+        tail.put(at + TYPE, type);
+        size++;
+    }
+    /** Сброс текущего сегмента на диск */
+    public void flush() {
+        if (tail != null) {
+            tail.force();
+        }
+    }
+    /** Закрытие журнала: записывать больше нельзя, читать курсором можно */
+    @Override
+    public void close() {
+        flush();
+        tail = null;
+    }
+    //======================================//
+
+
+    /**
+     * Количество записей; номер следующей записи
+     * @return количество
+     */
+    public long size() {
+        return size;
+    }
+    /**
+     * Курсор для последовательного чтения
+     * @param from номер первой записи
+     * @return курсор, стоящий перед записью {@code from}
+     */
+    public Cursor cursor(long from) {
+        if (from < 0 || from > size) {
+            throw new IndexOutOfBoundsException("Index: " + from + ", Size: " + size);
+        }
+        return new Cursor(from);
+    }
+    public Path getDirectory() {
+        return directory;
+    }
+
+
+    /** Переход к следующему сегменту */
+    private void roll() {
+        tail.force();
+        try {
+            tail = map(++segment, FileChannel.MapMode.READ_WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    /**
+     * Отображение сегмента в память; при записи файл создаётся заполненным нулями
+     * @param number номер сегмента
+     * @param mode режим
+     * @return отображение
+     */
+    private MappedByteBuffer map(long number, FileChannel.MapMode mode) throws IOException {
+        if (mode == FileChannel.MapMode.READ_ONLY) {
+            try (FileChannel channel = FileChannel.open(path(number), StandardOpenOption.READ)) {
+                return channel.map(mode, 0, segmentBytes());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(path(number), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(mode, 0, segmentBytes());
+        }
+    }
+    /**
+     * Количество записей в сегменте: записи идут подряд,
+     * поэтому первая пустая ищется двоичным поиском
+     * @param buffer сегмент
+     * @return количество записей
+     */
+    private int end(MappedByteBuffer buffer) {
+        int low = 0;
+        int high = segmentRecords - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (buffer.get(middle * RECORD + TYPE) != 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+    /**
+     * Номера сегментов в каталоге по возрастанию
+     * @return номера
+     */
+    private List<Long> segments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+    private Path path(long number) {
+        return directory.resolve(String.format("%016d", number) + SUFFIX);
+    }
+    private long segmentBytes() {
+        return (long) segmentRecords * RECORD;
+    }
+
+
+    /**
+     * Последовательное чтение журнала без создания объектов на каждую запись.
+     * Закрытые сегменты отображаются только для чтения по мере перехода к ним,
+     * последний читается из отображения, в которое идёт запись.
+     */
+    public class Cursor {
+
+        /** Номер текущей записи */
+        private long index;
+        /** Номер сегмента {@link #buffer} */
+        private long bufferSegment = -1;
+        /** Сегмент текущей записи */
+        private MappedByteBuffer buffer;
+        /** Смещение текущей записи в сегменте */
+        private int at;
+
+        private Cursor(long from) {
+            index = from - 1;
+        }
+
+        /**
+         * Переход к следующей записи
+         * @return {@code false}, если записи закончились
+         */
+        public boolean next() {
+            if (index + 1 >= size) {
+                return false;
+            }
+            index++;
+            long number = index / segmentRecords;
+            if (number != bufferSegment) {
+                try {
+                    buffer = number == segment && tail != null
+                            ? tail : map(number, FileChannel.MapMode.READ_ONLY);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                bufferSegment = number;
+            }
+            at = (int) (index % segmentRecords) * RECORD;
+            return true;
+        }
+        public long index() {
+            return index;
+        }
+        public byte type() {
+            return buffer.get(at + TYPE);
+        }
+        public int sensorA() {
+            return buffer.getInt(at + SENSOR_A);
+        }
+        public int sensorB() {
+            return buffer.getInt(at + SENSOR_B);
+        }
+        public long time() {
+            return buffer.getLong(at + TIME);
+        }
+        public double x() {
+            return buffer.getDouble(at + X);
+        }
+        public double y() {
+            return buffer.getDouble(at + Y);
+        }
+    }
+}
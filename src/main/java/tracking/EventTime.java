@@ -0,0 +1,39 @@
+package tracking;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Время событий: наносекунды от начала эпохи, как его передают датчики.
+ * Журналы сервиса по-прежнему хранят {@link Date}, поэтому здесь же перевод между ними.
+ */
+public final class EventTime {
+
+    private EventTime() {
+    }
+
+
+    /**
+     * Текущее время
+     * @return время, нс
+     */
+    public static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+    /**
+     * Перевод во время {@link Date} (с точностью до миллисекунд)
+     * @param time время, нс
+     * @return дата
+     */
+    public static Date toDate(long time) {
+        return new Date(TimeUnit.NANOSECONDS.toMillis(time));
+    }
+    /**
+     * Перевод из {@link Date}
+     * @param date дата
+     * @return время, нс
+     */
+    public static long of(Date date) {
+        return TimeUnit.MILLISECONDS.toNanos(date.getTime());
+    }
+}
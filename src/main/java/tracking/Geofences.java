@@ -0,0 +1,268 @@
+package tracking;
+
+import java.util.*;
+
+/**
+ * Набор зон с упакованным R-деревом для проверки, в каких зонах находится точка.
+ * Дерево строится один раз сортировкой по плиткам (STR): ограничивающие
+ * прямоугольники зон делятся на вертикальные полосы по центру по OX,
+ * внутри полосы - по центру по OY, и укладываются в листья по
+ * {@value #NODE} штук; верхние уровни строятся так же из прямоугольников
+ * нижних. Проверка точки спускается только в узлы, прямоугольник которых
+ * её содержит, поэтому стоит порядка логарифма от числа зон.
+ * <p>
+ * Набор хранит, в каких зонах находится каждый объект, и при каждом
+ * измерении сообщает о входе и выходе. Подключается к сервису методом
+ * {@link TrackingService#setGeofences(Geofences)}. Зоны объектов можно
+ * запрашивать из других потоков.
+ */
+public class Geofences {
+
+    /** Количество потомков узла */
+    static final int NODE = 8;
+    private static final int[] NONE = new int[0];
+
+
+    /** Зоны в порядке добавления */
+    private final List<Zone> zones;
+    /** Номера зон в порядке листьев дерева */
+    private final int[] packed;
+    /* Прямоугольники узлов по уровням: уровень 0 - зоны в порядке листьев */
+    private final double[][] minXs;
+    private final double[][] minYs;
+    private final double[][] maxXs;
+    private final double[][] maxYs;
+    /** Номера зон, в которых находится объект, по возрастанию */
+    private final Map<Tracked, int[]> inside;
+    /** Рабочий список зон измерения: пока зоны объекта не меняются, массив не создаётся */
+    private final IntList found;
+
+
+    /**
+     * Набор зон
+     * @param zones зоны
+     */
+    public Geofences(Zone... zones) {
+        this.zones = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(zones)));
+        inside = new HashMap<>();
+        found = new IntList();
+        packed = pack(zones);
+
+        List<double[][]> levels = new ArrayList<>();
+        double[][] level = new double[4][zones.length];
+        for (int i = 0; i < zones.length; i++) {
+            Zone zone = zones[packed[i]];
+            level[0][i] = zone.minX();
+            level[1][i] = zone.minY();
+            level[2][i] = zone.maxX();
+            level[3][i] = zone.maxY();
+        }
+        levels.add(level);
+        while (level[0].length > 1) {
+            level = parents(level);
+            levels.add(level);
+        }
+        int height = levels.size();
+        minXs = new double[height][];
+        minYs = new double[height][];
+        maxXs = new double[height][];
+        maxYs = new double[height][];
+        for (int i = 0; i < height; i++) {
+            minXs[i] = levels.get(i)[0];
+            minYs[i] = levels.get(i)[1];
+            maxXs[i] = levels.get(i)[2];
+            maxYs[i] = levels.get(i)[3];
+        }
+    }
+
+
+    /**
+     * Зоны, в которых находится точка
+     * @param x по OX
+     * @param y по OY
+     * @return зоны в порядке добавления
+     */
+    public List<Zone> zonesAt(double x, double y) {
+        return toZones(locate(x, y));
+    }
+    /**
+     * Зоны, в которых объект находился при последнем измерении
+     * @param tracked объект
+     * @return зоны в порядке добавления
+     */
+    public synchronized List<Zone> zonesOf(Tracked tracked) {
+        return toZones(inside.getOrDefault(tracked, NONE));
+    }
+    public List<Zone> getZones() {
+        return zones;
+    }
+
+    /**
+     * Новое измерение объекта: сравнение зон с прежними
+     * и постановка событий выхода, затем входа в очередь рассылки
+     * @param tracked объект
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     * @param dispatcher рассылка событий
+     */
+    synchronized void update(Tracked tracked, double x, double y, long time, EventDispatcher dispatcher) {
+        int[] before = inside.getOrDefault(tracked, NONE);
+        found.clear();
+        if (packed.length > 0) {
+            descend(minXs.length - 1, 0, x, y, found);
+        }
+        if (same(before, found)) {
+            return;
+        }
+        int[] after = sorted(found);
+        if (after.length == 0) {
+            inside.remove(tracked);
+        } else {
+            inside.put(tracked, after);
+        }
+        Date date = EventTime.toDate(time);
+        for (int zone : before) {
+            if (Arrays.binarySearch(after, zone) < 0) {
+                dispatcher.add(EventDispatcher.ZONE_EXITED, tracked, zones.get(zone), date);
+            }
+        }
+        for (int zone : after) {
+            if (Arrays.binarySearch(before, zone) < 0) {
+                dispatcher.add(EventDispatcher.ZONE_ENTERED, tracked, zones.get(zone), date);
+            }
+        }
+    }
+    /**
+     * Объект снят с отслеживания: он выходит из всех своих зон
+     * @param tracked объект
+     * @param time время последнего измерения, нс
+     * @param dispatcher рассылка событий
+     */
+    synchronized void forget(Tracked tracked, long time, EventDispatcher dispatcher) {
+        int[] before = inside.remove(tracked);
+        if (before == null) {
+            return;
+        }
+        Date date = EventTime.toDate(time);
+        for (int zone : before) {
+            dispatcher.add(EventDispatcher.ZONE_EXITED, tracked, zones.get(zone), date);
+        }
+    }
+
+
+    /**
+     * Спуск по дереву от корня
+     * @param x по OX
+     * @param y по OY
+     * @return номера зон по возрастанию
+     */
+    private int[] locate(double x, double y) {
+        if (packed.length == 0) {
+            return NONE;
+        }
+        IntList found = new IntList();
+        descend(minXs.length - 1, 0, x, y, found);
+        return sorted(found);
+    }
+    /**
+     * Совпадают ли зоны с прежними: зон у точки обычно одна-две,
+     * поэтому каждая ищется в прежнем массиве двоичным поиском
+     * @param before прежние номера зон по возрастанию
+     * @param found новые номера зон в порядке листьев, без повторов
+     */
+    private static boolean same(int[] before, IntList found) {
+        if (before.length != found.size()) {
+            return false;
+        }
+        for (int i = 0; i < found.size(); i++) {
+            if (Arrays.binarySearch(before, found.get(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    private static int[] sorted(IntList found) {
+        if (found.size() == 0) {
+            return NONE;
+        }
+        int[] numbers = new int[found.size()];
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = found.get(i);
+        }
+        Arrays.sort(numbers);
+        return numbers;
+    }
+    private void descend(int level, int node, double x, double y, IntList found) {
+        if (x < minXs[level][node] || x > maxXs[level][node] ||
+                y < minYs[level][node] || y > maxYs[level][node]) {
+            return;
+        }
+        if (level == 0) {
+            Zone zone = zones.get(packed[node]);
+            if (zone.contains(x, y)) {
+                found.add(packed[node]);
+            }
+            return;
+        }
+        int last = Math.min((node + 1) * NODE, minXs[level - 1].length);
+        for (int child = node * NODE; child < last; child++) {
+            descend(level - 1, child, x, y, found);
+        }
+    }
+    private List<Zone> toZones(int[] numbers) {
+        List<Zone> result = new ArrayList<>(numbers.length);
+        for (int number : numbers) {
+            result.add(zones.get(number));
+        }
+        return result;
+    }
+
+    /**
+     * Порядок зон в листьях: полосы по центру по OX, внутри полосы - по центру по OY
+     * @param zones зоны
+     * @return номера зон
+     */
+    private static int[] pack(Zone[] zones) {
+        Integer[] order = new Integer[zones.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> zones[i].minX() + zones[i].maxX()));
+        int leaves = (zones.length + NODE - 1) / NODE;
+        int slice = (int) Math.ceil(Math.sqrt(leaves)) * NODE;
+        for (int from = 0; from < order.length; from += slice) {
+            Arrays.sort(order, from, Math.min(from + slice, order.length),
+                    Comparator.comparingDouble(i -> zones[i].minY() + zones[i].maxY()));
+        }
+        int[] packed = new int[order.length];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = order[i];
+        }
+        return packed;
+    }
+    /**
+     * Уровень узлов над данным: прямоугольник каждого узла охватывает
+     * {@value #NODE} соседних прямоугольников уровня ниже
+     * @param level прямоугольники уровня: minX, minY, maxX, maxY
+     * @return прямоугольники узлов
+     */
+    private static double[][] parents(double[][] level) {
+        int count = (level[0].length + NODE - 1) / NODE;
+        double[][] parents = new double[4][count];
+        for (int node = 0; node < count; node++) {
+            parents[0][node] = Double.POSITIVE_INFINITY;
+            parents[1][node] = Double.POSITIVE_INFINITY;
+            parents[2][node] = Double.NEGATIVE_INFINITY;
+            parents[3][node] = Double.NEGATIVE_INFINITY;
+            int last = Math.min((node + 1) * NODE, level[0].length);
+            for (int child = node * NODE; child < last; child++) {
+                parents[0][node] = Math.min(parents[0][node], level[0][child]);
+                parents[1][node] = Math.min(parents[1][node], level[1][child]);
+                parents[2][node] = Math.max(parents[2][node], level[2][child]);
+                parents[3][node] = Math.max(parents[3][node], level[3][child]);
+            }
+        }
+        return parents;
+    }
+}
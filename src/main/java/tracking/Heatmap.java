@@ -0,0 +1,250 @@
+package tracking;
+
+import zoo.animal.Animal;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Тепловая карта измерений: сетка счётчиков фиксированного размера
+ * поверх плана зоопарка. Каждое измерение увеличивает счётчик своей
+ * клетки в общем слое и в слое объекта: у животных слой общий для вида
+ * (названия), у сотрудников - свой у каждого.
+ * <p>
+ * Кроме счётчиков за всё время слой хранит кольцо корзин по
+ * промежуткам времени (по умолчанию 24 корзины по часу) и их сумму - окно.
+ * Когда приходит измерение новее последней корзины, устаревшие корзины
+ * вычитаются из окна и обнуляются, поэтому чтение окна - одно копирование массива.
+ * Клетки в массивах идут по строкам: {@code row * columns + column}.
+ * <p>
+ * Подключается к сервису методом {@link TrackingService#setHeatmap(Heatmap)}.
+ * Запросы можно выполнять из других потоков.
+ */
+public class Heatmap {
+
+    /** Общий слой */
+    public static final String ALL = "all";
+
+
+    /* Сетка */
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columns;
+    private final int rows;
+    /** Длина корзины, нс */
+    private final long bucket;
+    /** Количество корзин в окне */
+    private final int buckets;
+
+    /** Слои по названию */
+    private final Map<String, Layer> layers;
+    /** Общий слой; {@code null} до первого измерения в сетке */
+    private Layer all;
+    /** Слой каждого объекта: название строится один раз при первом измерении */
+    private final Map<Tracked, Layer> own;
+    /** Номер самой новой корзины от начала эпохи; {@code Long.MIN_VALUE} - измерений не было */
+    private long newest = Long.MIN_VALUE;
+    /** Количество измерений за пределами сетки */
+    private long outside;
+
+
+    /**
+     * Тепловая карта с окном за последние сутки по часам
+     * @param minX левая граница сетки
+     * @param minY нижняя граница сетки
+     * @param cellSize сторона клетки
+     * @param columns количество клеток по OX
+     * @param rows количество клеток по OY
+     */
+    public Heatmap(double minX, double minY, double cellSize, int columns, int rows) {
+        this(minX, minY, cellSize, columns, rows, TimeUnit.HOURS.toNanos(1), 24);
+    }
+    /**
+     * Тепловая карта
+     * @param minX левая граница сетки
+     * @param minY нижняя граница сетки
+     * @param cellSize сторона клетки
+     * @param columns количество клеток по OX
+     * @param rows количество клеток по OY
+     * @param bucket длина корзины, нс
+     * @param buckets количество корзин в окне
+     */
+    public Heatmap(double minX, double minY, double cellSize, int columns, int rows,
+                   long bucket, int buckets) {
+        if (cellSize <= 0 || columns <= 0 || rows <= 0 || bucket <= 0 || buckets <= 0) {
+            throw new IllegalArgumentException("cellSize=" + cellSize + ", columns=" + columns +
+                    ", rows=" + rows + ", bucket=" + bucket + ", buckets=" + buckets);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.bucket = bucket;
+        this.buckets = buckets;
+        layers = new HashMap<>();
+        own = new IdentityHashMap<>();
+    }
+
+    /**
+     * Слой объекта
+     * @param tracked объект
+     * @return название слоя: вид животного или сотрудник
+     */
+    public static String layer(Tracked tracked) {
+        return tracked instanceof Animal
+                ? "species:" + ((Animal) tracked).getName()
+                : "employee:" + tracked.getId();
+    }
+
+
+    /**
+     * Учёт измерения
+     * @param tracked объект
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    public synchronized void add(Tracked tracked, double x, double y, long time) {
+        int column = (int) Math.floor((x - minX) / cellSize);
+        int row = (int) Math.floor((y - minY) / cellSize);
+        if (column < 0 || column >= columns || row < 0 || row >= rows) {
+            outside++;
+            return;
+        }
+        int cell = row * columns + column;
+        long number = Math.floorDiv(time, bucket);
+        if (number > newest) {
+            advance(number);
+        }
+        /* Корзина уже вышла из окна - только счётчик за всё время */
+        boolean windowed = number > newest - buckets;
+        if (all == null) {
+            all = layer(ALL);
+        }
+        Layer layer = own.get(tracked);
+        if (layer == null) {
+            layer = layer(layer(tracked));
+            own.put(tracked, layer);
+        }
+        all.add(cell, number, windowed);
+        layer.add(cell, number, windowed);
+    }
+
+    /**
+     * Сброс запомненного слоя объекта, удалённого из сервиса;
+     * счётчики слоя остаются
+     * @param tracked объект
+     */
+    synchronized void forget(Tracked tracked) {
+        own.remove(tracked);
+    }
+
+
+    //=========== Запросы ===========//
+    /**
+     * Счётчики слоя за окно
+     * @param layer название слоя
+     * @return копия счётчиков клеток
+     */
+    public synchronized int[] window(String layer) {
+        Layer found = layers.get(layer);
+        return found == null ? new int[columns * rows] : found.window.clone();
+    }
+    /**
+     * Счётчики слоя за всё время
+     * @param layer название слоя
+     * @return копия счётчиков клеток
+     */
+    public synchronized int[] total(String layer) {
+        Layer found = layers.get(layer);
+        return found == null ? new int[columns * rows] : found.total.clone();
+    }
+    /**
+     * Счётчики слоя за одну корзину окна
+     * @param layer название слоя
+     * @param time любой момент внутри корзины
+     * @return копия счётчиков клеток; нули, если корзина вне окна
+     */
+    public synchronized int[] bucket(String layer, Date time) {
+        Layer found = layers.get(layer);
+        long number = Math.floorDiv(TimeUnit.MILLISECONDS.toNanos(time.getTime()), bucket);
+        if (found == null || number > newest || number <= newest - buckets) {
+            return new int[columns * rows];
+        }
+        int[] counts = found.ring[(int) Math.floorMod(number, (long) buckets)];
+        return counts == null ? new int[columns * rows] : counts.clone();
+    }
+    public synchronized Set<String> getLayers() {
+        return new TreeSet<>(layers.keySet());
+    }
+    public synchronized long getOutside() {
+        return outside;
+    }
+    public int getColumns() {
+        return columns;
+    }
+    public int getRows() {
+        return rows;
+    }
+    //===============================//
+
+
+    /**
+     * Сдвиг окна: корзины, вышедшие из него, вычитаются и обнуляются
+     * @param number номер новой самой новой корзины
+     */
+    private void advance(long number) {
+        long expired = newest == Long.MIN_VALUE ? 0 : Math.min(number - newest, buckets);
+        for (Layer layer : layers.values()) {
+            for (long i = 1; i <= expired; i++) {
+                layer.expire((int) Math.floorMod(newest + i, (long) buckets));
+            }
+        }
+        newest = number;
+    }
+    private Layer layer(String name) {
+        return layers.computeIfAbsent(name, key -> new Layer(columns * rows, buckets));
+    }
+
+
+    /** Счётчики одного слоя */
+    private static class Layer {
+
+        private final int[] total;
+        private final int[] window;
+        /** Корзины; создаются при первом измерении */
+        private final int[][] ring;
+
+        Layer(int cells, int buckets) {
+            total = new int[cells];
+            window = new int[cells];
+            ring = new int[buckets][];
+        }
+
+        void add(int cell, long number, boolean windowed) {
+            total[cell]++;
+            if (!windowed) {
+                return;
+            }
+            int slot = (int) Math.floorMod(number, (long) ring.length);
+            if (ring[slot] == null) {
+                ring[slot] = new int[total.length];
+            }
+            ring[slot][cell]++;
+            window[cell]++;
+        }
+        /** Корзина вышла из окна */
+        void expire(int slot) {
+            int[] counts = ring[slot];
+            if (counts == null) {
+                return;
+            }
+            for (int cell = 0; cell < counts.length; cell++) {
+                window[cell] -= counts[cell];
+            }
+            Arrays.fill(counts, 0);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package tracking;
+
+import java.util.Arrays;
+
+/** Растущий массив целых чисел без упаковки */
+class IntList {
+
+    /** Элементы */
+    private int[] items;
+    /** Количество элементов */
+    private int size;
+
+
+    IntList() {
+        items = new int[16];
+    }
+
+
+    /**
+     * Добавление элемента в конец
+     * @param value элемент
+     */
+    void add(int value) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = value;
+    }
+    /**
+     * Элемент по индексу
+     * @param index индекс
+     * @return элемент
+     */
+    int get(int index) {
+        return items[index];
+    }
+    /**
+     * Удаление элемента: на его место переносится последний
+     * @param index индекс
+     */
+    void removeAt(int index) {
+        items[index] = items[--size];
+    }
+    int size() {
+        return size;
+    }
+    void clear() {
+        size = 0;
+    }
+}
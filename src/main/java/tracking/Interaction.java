@@ -19,6 +19,26 @@ public class Interaction {
         this.end = end;
     }
 
+    /**
+     * Ключ неупорядоченной пары участников
+     * @return ключ
+     */
+    public long key() {
+        return key(trackedA, trackedB);
+    }
+    /**
+     * Ключ неупорядоченной пары объектов: идентификаторы датчиков,
+     * упакованные в одно число (меньший - в старших разрядах)
+     * @param trackedA первый объект
+     * @param trackedB второй объект
+     * @return ключ
+     */
+    public static long key(Tracked trackedA, Tracked trackedB) {
+        int a = Math.min(trackedA.getSensorId(), trackedB.getSensorId());
+        int b = Math.max(trackedA.getSensorId(), trackedB.getSensorId());
+        return ((long) a << 32) | (b & 0xffffffffL);
+    }
+
     public Tracked trackedA() {
         return trackedA;
     }
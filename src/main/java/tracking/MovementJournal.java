@@ -0,0 +1,601 @@
+package tracking;
+
+import zoo.Position;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Журнал перемещений объекта.
+ * Точки хранятся столбцами примитивов (x, y, время в наносекундах),
+ * разбитыми на блоки фиксированного размера: журнал растёт без копирования
+ * накопленных данных. Записи только добавляются в конец, в порядке времени:
+ * точка старше последней не записывается, на этом держатся поиск по времени
+ * и курсоры.
+ * Заполненный блок, кроме последнего, запечатывается: сжимается
+ * в {@link SealedBlock} и при чтении распаковывается целиком. Время
+ * первой и последней точки и ограничивающий прямоугольник блока хранятся
+ * несжатыми, поэтому поиск по времени и чтение крайних точек блока
+ * обходятся без распаковки. Несколько последних распакованных блоков
+ * запоминаются, поэтому чтение вперемешку из соседних блоков не
+ * распаковывает их каждый раз заново.
+ * <p>
+ * В режиме сжатия ({@link #setTolerance(double)}) последняя точка может
+ * замещаться новой, если путь от предпоследней точки до новой по прямой
+ * с равномерной скоростью отклоняется от каждой пропущенной точки в тот же
+ * момент времени не больше допуска. Остальные точки не меняются.
+ */
+public class MovementJournal {
+
+    /** Степень двойки размера блока */
+    private static final int CHUNK_BITS = 10;
+    /** Размер блока */
+    private static final int CHUNK = 1 << CHUNK_BITS;
+    /** Маска смещения внутри блока */
+    private static final int MASK = CHUNK - 1;
+    /** Количество запоминаемых распакованных блоков */
+    private static final int CACHE = 4;
+    /** Наибольшее количество точек, замещённых одной последней точкой */
+    private static final int WINDOW = 64;
+
+    /** Блоки местоположений по OX */
+    private double[][] xs;
+    /** Блоки местоположений по OY */
+    private double[][] ys;
+    /** Блоки времени, нс */
+    private long[][] times;
+    /** Запечатанные блоки; у запечатанного блока столбцы {@code null} */
+    private SealedBlock[] sealed;
+    /** Время первой точки каждого блока, нс */
+    private long[] firstTimes;
+    /** Время последней точки каждого запечатанного блока, нс */
+    private long[] lastTimes;
+    /* Ограничивающие прямоугольники запечатанных блоков */
+    private double[] minXs;
+    private double[] minYs;
+    private double[] maxXs;
+    private double[] maxYs;
+    /** Последние распакованные блоки, начиная с самого свежего; массив заменяется целиком */
+    private volatile Unpacked[] unpacked;
+    /** Количество точек */
+    private int size;
+    /** Представление в виде списка */
+    private final List<Position> view;
+
+    /** Допуск сжатия, м; 0 - сжатие выключено */
+    private double tolerance;
+    /** Можно ли заместить последнюю точку */
+    private boolean floating;
+    /* Точки, пропущенные после предпоследней */
+    private final double[] skippedX;
+    private final double[] skippedY;
+    private final long[] skippedTime;
+    private int skipped;
+
+
+    /** Пустой журнал */
+    public MovementJournal() {
+        xs = new double[1][];
+        ys = new double[1][];
+        times = new long[1][];
+        sealed = new SealedBlock[1];
+        firstTimes = new long[1];
+        lastTimes = new long[1];
+        minXs = new double[1];
+        minYs = new double[1];
+        maxXs = new double[1];
+        maxYs = new double[1];
+        unpacked = new Unpacked[0];
+        view = new PositionList();
+        skippedX = new double[WINDOW];
+        skippedY = new double[WINDOW];
+        skippedTime = new long[WINDOW];
+    }
+
+
+    /**
+     * Запись нового местоположения: точка добавляется,
+     * только если она отличается от последней записанной
+     * и не старше её. В режиме сжатия точка может заместить последнюю.
+     * @param x по OX
+     * @param y по OY
+     * @param time время, нс
+     * @return {@code true}, если точка добавлена или заместила последнюю
+     */
+    public boolean record(double x, double y, long time) {
+        if (size > 0) {
+            int last = size - 1;
+            if (time < times[last >>> CHUNK_BITS][last & MASK]) {
+                return false;
+            }
+            if (xs[last >>> CHUNK_BITS][last & MASK] == x &&
+                    ys[last >>> CHUNK_BITS][last & MASK] == y) {
+                return false;
+            }
+        }
+        if (floating && fits(x, y, time)) {
+            int last = size - 1;
+            skippedX[skipped] = xs[last >>> CHUNK_BITS][last & MASK];
+            skippedY[skipped] = ys[last >>> CHUNK_BITS][last & MASK];
+            skippedTime[skipped] = times[last >>> CHUNK_BITS][last & MASK];
+            skipped++;
+            xs[last >>> CHUNK_BITS][last & MASK] = x;
+            ys[last >>> CHUNK_BITS][last & MASK] = y;
+            times[last >>> CHUNK_BITS][last & MASK] = time;
+            /* Замещена первая точка блока - по ней ищется блок */
+            if ((last & MASK) == 0) {
+                firstTimes[last >>> CHUNK_BITS] = time;
+            }
+            return true;
+        }
+        append(x, y, time);
+        floating = tolerance > 0 && size > 1;
+        return true;
+    }
+    /**
+     * Добавление точки в конец журнала
+     * @param x по OX
+     * @param y по OY
+     * @param time время, нс
+     * @throws IllegalArgumentException если точка старше последней
+     */
+    public void append(double x, double y, long time) {
+        if (size > 0 && time < time(size - 1)) {
+            throw new IllegalArgumentException("time=" + time + " is before the last point");
+        }
+        int chunk = size >>> CHUNK_BITS;
+        grow(chunk);
+        if (xs[chunk] == null) {
+            xs[chunk] = new double[CHUNK];
+            ys[chunk] = new double[CHUNK];
+            times[chunk] = new long[CHUNK];
+            firstTimes[chunk] = time;
+            /* Блок, добавленный запечатанным, уже сжат */
+            if (chunk > 0 && sealed[chunk - 1] == null) {
+                seal(chunk - 1);
+            }
+        }
+        int offset = size & MASK;
+        xs[chunk][offset] = x;
+        ys[chunk][offset] = y;
+        times[chunk][offset] = time;
+        size++;
+        floating = false;
+        skipped = 0;
+    }
+    /**
+     * Добавление в конец уже сжатого блока без повторного сжатия,
+     * например при восстановлении из снимка. Время и прямоугольник
+     * блока находятся одной распаковкой.
+     * @param block блок из {@value #CHUNK} точек
+     * @throws IllegalStateException если последний блок журнала не запечатан
+     * @throws IllegalArgumentException если в блоке не {@value #CHUNK} точек
+     * или его первая точка старше последней точки журнала
+     */
+    void appendSealed(SealedBlock block) {
+        if ((size & MASK) != 0 || (size > 0 && sealed[(size - 1) >>> CHUNK_BITS] == null)) {
+            throw new IllegalStateException("The last chunk is not sealed");
+        }
+        if (block.size() != CHUNK) {
+            throw new IllegalArgumentException("Block of " + block.size() + " points");
+        }
+        int chunk = size >>> CHUNK_BITS;
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        SealedBlock.Decoder decoder = block.decoder();
+        decoder.next();
+        long first = decoder.time();
+        if (size > 0 && first < time(size - 1)) {
+            throw new IllegalArgumentException("time=" + first + " is before the last point");
+        }
+        do {
+            minX = Math.min(minX, decoder.x());
+            minY = Math.min(minY, decoder.y());
+            maxX = Math.max(maxX, decoder.x());
+            maxY = Math.max(maxY, decoder.y());
+        } while (decoder.next());
+        grow(chunk);
+        firstTimes[chunk] = first;
+        lastTimes[chunk] = decoder.time();
+        minXs[chunk] = minX;
+        minYs[chunk] = minY;
+        maxXs[chunk] = maxX;
+        maxYs[chunk] = maxY;
+        sealed[chunk] = block;
+        size += CHUNK;
+        floating = false;
+        skipped = 0;
+    }
+    /**
+     * Запечатанный блок
+     * @param chunk номер блока, меньший {@code getSealedSize() / CHUNK}
+     * @return сжатый блок
+     */
+    SealedBlock sealedBlock(int chunk) {
+        return sealed[chunk];
+    }
+
+    /**
+     * Включение сжатия: уже записанные точки не меняются
+     * @param tolerance допуск, м; 0 - выключить сжатие
+     */
+    public void setTolerance(double tolerance) {
+        if (tolerance < 0 || Double.isNaN(tolerance)) {
+            throw new IllegalArgumentException("tolerance=" + tolerance);
+        }
+        this.tolerance = tolerance;
+        floating = false;
+        skipped = 0;
+    }
+    public double getTolerance() {
+        return tolerance;
+    }
+    /**
+     * Объём сжатых данных запечатанных блоков
+     * @return байт
+     */
+    public long getSealedBytes() {
+        long bytes = 0;
+        for (int chunk = 0; chunk < sealed.length && sealed[chunk] != null; chunk++) {
+            bytes += sealed[chunk].bytes();
+        }
+        return bytes;
+    }
+    /**
+     * Количество точек в запечатанных блоках
+     * @return количество
+     */
+    public int getSealedSize() {
+        return size == 0 ? 0 : ((size - 1) >>> CHUNK_BITS) << CHUNK_BITS;
+    }
+    /**
+     * Может ли журнал содержать точку в прямоугольнике за промежуток времени.
+     * Запечатанные блоки проверяются по времени и прямоугольнику без
+     * распаковки, остальные точки - по одной
+     * @param minX левая граница
+     * @param minY нижняя граница
+     * @param maxX правая граница
+     * @param maxY верхняя граница
+     * @param from начало промежутка, нс
+     * @param to конец промежутка (включительно), нс
+     * @return {@code true}, если такая точка есть
+     */
+    public boolean visits(double minX, double minY, double maxX, double maxY, long from, long to) {
+        int first = Math.max(indexAt(from - 1) + 1, 0);
+        int last = indexAt(to);
+        for (int i = first; i <= last; ) {
+            int chunk = i >>> CHUNK_BITS;
+            if (xs[chunk] == null) {
+                if (maxXs[chunk] < minX || minXs[chunk] > maxX ||
+                        maxYs[chunk] < minY || minYs[chunk] > maxY) {
+                    i = (chunk + 1) << CHUNK_BITS;
+                    continue;
+                }
+            }
+            double x = x(i);
+            double y = y(i);
+            if (x >= minX && x <= maxX && y >= minY && y <= maxY) {
+                return true;
+            }
+            i++;
+        }
+        return false;
+    }
+
+
+    public int size() {
+        return size;
+    }
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    /**
+     * Местоположение по OX
+     * @param index номер точки
+     * @return x
+     */
+    public double x(int index) {
+        checkIndex(index);
+        double[] column = xs[index >>> CHUNK_BITS];
+        return column != null ? column[index & MASK] : unpack(index >>> CHUNK_BITS).xs[index & MASK];
+    }
+    /**
+     * Местоположение по OY
+     * @param index номер точки
+     * @return y
+     */
+    public double y(int index) {
+        checkIndex(index);
+        double[] column = ys[index >>> CHUNK_BITS];
+        return column != null ? column[index & MASK] : unpack(index >>> CHUNK_BITS).ys[index & MASK];
+    }
+    /**
+     * Время точки
+     * @param index номер точки
+     * @return время, нс
+     */
+    public long time(int index) {
+        checkIndex(index);
+        int chunk = index >>> CHUNK_BITS;
+        long[] column = times[chunk];
+        if (column != null) {
+            return column[index & MASK];
+        }
+        /* Крайние точки запечатанного блока известны без распаковки */
+        if ((index & MASK) == 0) {
+            return firstTimes[chunk];
+        }
+        if ((index & MASK) == MASK) {
+            return lastTimes[chunk];
+        }
+        return unpack(chunk).times[index & MASK];
+    }
+    /**
+     * Поиск последней точки, записанной не позже данного момента
+     * @param time время, нс
+     * @return номер точки или -1, если все точки позже
+     */
+    public int indexAt(long time) {
+        if (size == 0) {
+            return -1;
+        }
+        /* Сначала блок по времени первых точек, затем точка внутри блока */
+        int low = 0;
+        int high = (size - 1) >>> CHUNK_BITS;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firstTimes[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (high < 0) {
+            return -1;
+        }
+        int chunk = high;
+        long[] column = times[chunk];
+        if (column == null) {
+            if (lastTimes[chunk] <= time) {
+                return (chunk << CHUNK_BITS) + MASK;
+            }
+            column = unpack(chunk).times;
+        }
+        low = 0;
+        high = Math.min(CHUNK, size - (chunk << CHUNK_BITS)) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (column[middle] <= time) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return (chunk << CHUNK_BITS) + high;
+    }
+    /**
+     * Курсор для последовательного чтения
+     * @param from номер первой точки
+     * @return курсор, стоящий перед точкой {@code from}
+     */
+    public Cursor cursor(int from) {
+        return new Cursor(from);
+    }
+    /**
+     * Курсор для последовательного чтения, начиная с момента времени
+     * @param time время, нс
+     * @return курсор, стоящий перед первой точкой не раньше {@code time}
+     */
+    public Cursor cursorAt(long time) {
+        int index = indexAt(time);
+        if (index >= 0 && time(index) < time) {
+            index++;
+        }
+        return new Cursor(Math.max(index, 0));
+    }
+    /**
+     * Представление журнала в виде списка только для чтения.
+     * Каждый вызов {@code get} создаёт новый {@link Position}.
+     * @return список
+     */
+    public List<Position> asList() {
+        return view;
+    }
+
+
+    /** Увеличение таблицы блоков, чтобы в ней было место для блока {@code chunk} */
+    private void grow(int chunk) {
+        if (chunk < xs.length) {
+            return;
+        }
+        xs = Arrays.copyOf(xs, chunk * 2);
+        ys = Arrays.copyOf(ys, chunk * 2);
+        times = Arrays.copyOf(times, chunk * 2);
+        sealed = Arrays.copyOf(sealed, chunk * 2);
+        firstTimes = Arrays.copyOf(firstTimes, chunk * 2);
+        lastTimes = Arrays.copyOf(lastTimes, chunk * 2);
+        minXs = Arrays.copyOf(minXs, chunk * 2);
+        minYs = Arrays.copyOf(minYs, chunk * 2);
+        maxXs = Arrays.copyOf(maxXs, chunk * 2);
+        maxYs = Arrays.copyOf(maxYs, chunk * 2);
+    }
+    /**
+     * Сжатие заполненного блока и освобождение его столбцов
+     * @param chunk номер блока
+     */
+    private void seal(int chunk) {
+        firstTimes[chunk] = times[chunk][0];
+        lastTimes[chunk] = times[chunk][MASK];
+        double minX = Double.POSITIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < CHUNK; i++) {
+            minX = Math.min(minX, xs[chunk][i]);
+            minY = Math.min(minY, ys[chunk][i]);
+            maxX = Math.max(maxX, xs[chunk][i]);
+            maxY = Math.max(maxY, ys[chunk][i]);
+        }
+        minXs[chunk] = minX;
+        minYs[chunk] = minY;
+        maxXs[chunk] = maxX;
+        maxYs[chunk] = maxY;
+        sealed[chunk] = SealedBlock.seal(xs[chunk], ys[chunk], times[chunk], CHUNK);
+        xs[chunk] = null;
+        ys[chunk] = null;
+        times[chunk] = null;
+    }
+    /**
+     * Распаковка запечатанного блока
+     * @param chunk номер блока
+     * @return столбцы блока
+     */
+    private Unpacked unpack(int chunk) {
+        Unpacked[] cache = unpacked;
+        for (int i = 0; i < cache.length; i++) {
+            if (cache[i].chunk != chunk) {
+                continue;
+            }
+            if (i > 0) {
+                unpacked = promote(cache, i, cache[i]);
+            }
+            return cache[i];
+        }
+        Unpacked columns = new Unpacked(chunk);
+        sealed[chunk].decode(columns.xs, columns.ys, columns.times);
+        unpacked = promote(cache, Math.min(cache.length, CACHE - 1), columns);
+        return columns;
+    }
+    /**
+     * Новый набор распакованных блоков: блок ставится первым,
+     * блок на месте {@code from} вытесняется
+     */
+    private static Unpacked[] promote(Unpacked[] cache, int from, Unpacked first) {
+        Unpacked[] result = new Unpacked[Math.min(Math.max(cache.length, from + 1), CACHE)];
+        result[0] = first;
+        int j = 1;
+        for (int i = 0; i < cache.length && j < result.length; i++) {
+            if (i != from) {
+                result[j++] = cache[i];
+            }
+        }
+        return result;
+    }
+    /**
+     * Можно ли заместить последнюю точку новой: последняя и все пропущенные
+     * точки должны лежать не дальше допуска от положения, в котором объект
+     * был бы в их время при движении от предпоследней точки к новой
+     * @param x по OX
+     * @param y по OY
+     * @param time время, нс
+     * @return {@code true}, если допуск соблюдён
+     */
+    private boolean fits(double x, double y, long time) {
+        int anchor = size - 2;
+        /* Предпоследняя точка может оказаться в запечатанном блоке */
+        double ax = x(anchor);
+        double ay = y(anchor);
+        long at = time(anchor);
+        if (skipped == WINDOW || time <= at) {
+            return false;
+        }
+        int last = size - 1;
+        if (!near(ax, ay, at, x, y, time, xs[last >>> CHUNK_BITS][last & MASK],
+                ys[last >>> CHUNK_BITS][last & MASK], times[last >>> CHUNK_BITS][last & MASK])) {
+            return false;
+        }
+        for (int i = 0; i < skipped; i++) {
+            if (!near(ax, ay, at, x, y, time, skippedX[i], skippedY[i], skippedTime[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    private boolean near(double ax, double ay, long at, double bx, double by, long bt,
+                         double px, double py, long pt) {
+        double ratio = (double) (pt - at) / (bt - at);
+        double dx = ax + (bx - ax) * ratio - px;
+        double dy = ay + (by - ay) * ratio - py;
+        return dx * dx + dy * dy <= tolerance * tolerance;
+    }
+    /**
+     * Проверка номера точки
+     * @param index номер точки
+     */
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return view.toString();
+    }
+
+
+    /** Последовательное чтение журнала без создания объектов на каждую точку */
+    public class Cursor {
+
+        /** Номер текущей точки */
+        private int index;
+
+        private Cursor(int from) {
+            index = from - 1;
+        }
+
+        /**
+         * Переход к следующей точке
+         * @return {@code false}, если точки закончились
+         */
+        public boolean next() {
+            if (index + 1 >= size) {
+                return false;
+            }
+            index++;
+            return true;
+        }
+        public int index() {
+            return index;
+        }
+        public double x() {
+            return MovementJournal.this.x(index);
+        }
+        public double y() {
+            return MovementJournal.this.y(index);
+        }
+        public long time() {
+            return MovementJournal.this.time(index);
+        }
+    }
+
+    /** Распакованные столбцы запечатанного блока */
+    private static final class Unpacked {
+
+        private final int chunk;
+        private final double[] xs = new double[CHUNK];
+        private final double[] ys = new double[CHUNK];
+        private final long[] times = new long[CHUNK];
+
+        Unpacked(int chunk) {
+            this.chunk = chunk;
+        }
+    }
+
+    /** Список точек для совместимости с кодом, работающим с {@link Position} */
+    private class PositionList extends AbstractList<Position> {
+
+        @Override
+        public Position get(int index) {
+            return new Position(x(index), y(index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
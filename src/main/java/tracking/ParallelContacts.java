@@ -0,0 +1,227 @@
+package tracking;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Параллельная проверка контактов в {@link ForkJoinPool}.
+ * Задачи только вычисляют результаты проверок, а применяются они
+ * вызывающим потоком в исходном порядке, поэтому итог совпадает
+ * с однопоточным режимом. Общее состояние, в том числе планировщик
+ * поиска соседей, задачи не меняют.
+ */
+class ParallelContacts {
+
+    /** Количество задач поиска пар на поток пула */
+    static final int TASKS_PER_THREAD = 4;
+    /** Наименьшее количество объектов, ради которого участок делится */
+    static final int MIN_TILE = 32;
+    /** Размер порции текущих контактов для одной задачи */
+    static final int CHUNK = 256;
+
+
+    private ParallelContacts() {
+    }
+
+
+    /**
+     * Поиск пар в контакте по участкам зоны.
+     * Объекты раскладываются по квадратным участкам, и каждый участок
+     * обрабатывается отдельной задачей. Сторона участка подбирается по
+     * размаху объектов так, чтобы участков было около
+     * {@link #TASKS_PER_THREAD} на поток пула, а участок, в котором объектов
+     * больше средней доли задачи, делится пополам, пока доля не станет средней.
+     * Соседи ищутся по общей сетке, поэтому пары на границе участков тоже находятся.
+     * @param pool пул потоков
+     * @param table таблица местоположений
+     * @param subjects строки проверяемых объектов
+     * @param cellSize сторона ячейки сетки - наименьшая сторона участка
+     * @param collector поиск пар одного объекта
+     * @return найденные пары и свободные расстояния для каждого объекта
+     */
+    static Pairs collect(ForkJoinPool pool, PositionTable table, IntList subjects,
+                         double cellSize, Collector collector) {
+        int tasks = pool.getParallelism() * TASKS_PER_THREAD;
+        int limit = Math.max(MIN_TILE, (subjects.size() + tasks - 1) / tasks);
+        double minX = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY;
+        double minY = Double.POSITIVE_INFINITY;
+        double maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < subjects.size(); i++) {
+            int handle = subjects.get(i);
+            minX = Math.min(minX, table.x(handle));
+            maxX = Math.max(maxX, table.x(handle));
+            minY = Math.min(minY, table.y(handle));
+            maxY = Math.max(maxY, table.y(handle));
+        }
+        double tileSize = Math.max(cellSize,
+                Math.max(maxX - minX, maxY - minY) / Math.ceil(Math.sqrt(tasks)));
+
+        Map<Long, IntList> tiles = new LinkedHashMap<>();
+        for (int i = 0; i < subjects.size(); i++) {
+            int handle = subjects.get(i);
+            long key = SpatialGrid.key(
+                    (int) Math.floor(table.x(handle) / tileSize),
+                    (int) Math.floor(table.y(handle) / tileSize));
+            IntList tile = tiles.get(key);
+            if (tile == null) {
+                tile = new IntList();
+                tiles.put(key, tile);
+            }
+            tile.add(i);
+        }
+
+        Pairs pairs = new Pairs(subjects.size());
+        List<RecursiveAction> actions = new ArrayList<>(tiles.size());
+        for (IntList tile : tiles.values()) {
+            actions.add(new Tile(tile, 0, tile.size(), limit, subjects, pairs, collector));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(actions);
+            }
+        });
+        return pairs;
+    }
+
+    /**
+     * Проверка, продолжаются ли текущие контакты
+     * @param pool пул потоков
+     * @param interactions контакты
+     * @param service сервис, проверяющий расстояние
+     * @return для каждого контакта {@code true}, если участники всё ещё рядом
+     */
+    static boolean[] contacts(ForkJoinPool pool, List<Interaction> interactions,
+                              TrackingService service) {
+        boolean[] contacts = new boolean[interactions.size()];
+        pool.invoke(new ContactChunk(interactions, service, contacts,
+                0, interactions.size()));
+        return contacts;
+    }
+
+
+    /** Поиск пар одного объекта */
+    interface Collector {
+        /**
+         * @param handle строка объекта
+         * @param pairs список, в который пары добавляются подряд
+         * @return свободное расстояние объекта (см. {@link ContactScheduler})
+         */
+        double collect(int handle, IntList pairs);
+    }
+
+    /**
+     * Найденные пары: для каждого объекта - список участка и диапазон в нём,
+     * а также свободное расстояние
+     */
+    static class Pairs {
+
+        private final IntList[] lists;
+        private final int[] from;
+        private final int[] to;
+        private final double[] clear;
+
+        Pairs(int subjects) {
+            lists = new IntList[subjects];
+            from = new int[subjects];
+            to = new int[subjects];
+            clear = new double[subjects];
+        }
+
+        IntList list(int subject) {
+            return lists[subject];
+        }
+        int from(int subject) {
+            return from[subject];
+        }
+        int to(int subject) {
+            return to[subject];
+        }
+        double clear(int subject) {
+            return clear[subject];
+        }
+    }
+
+    /** Поиск пар для части объектов участка */
+    private static class Tile extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /** Номера объектов участка в списке проверяемых */
+        private final IntList tile;
+        private final int from;
+        private final int to;
+        /** Наибольшее количество объектов одной задачи */
+        private final int limit;
+        private final IntList subjects;
+        private final Pairs pairs;
+        private final Collector collector;
+
+        Tile(IntList tile, int from, int to, int limit,
+             IntList subjects, Pairs pairs, Collector collector) {
+            this.tile = tile;
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+            this.subjects = subjects;
+            this.pairs = pairs;
+            this.collector = collector;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > limit) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Tile(tile, from, middle, limit, subjects, pairs, collector),
+                        new Tile(tile, middle, to, limit, subjects, pairs, collector));
+                return;
+            }
+            IntList found = new IntList();
+            for (int j = from; j < to; j++) {
+                int i = tile.get(j);
+                pairs.lists[i] = found;
+                pairs.from[i] = found.size();
+                pairs.clear[i] = collector.collect(subjects.get(i), found);
+                pairs.to[i] = found.size();
+            }
+        }
+    }
+
+    /** Проверка расстояния для части списка контактов */
+    private static class ContactChunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Interaction> interactions;
+        private final TrackingService service;
+        private final boolean[] contacts;
+        private final int from;
+        private final int to;
+
+        ContactChunk(List<Interaction> interactions, TrackingService service,
+                     boolean[] contacts, int from, int to) {
+            this.interactions = interactions;
+            this.service = service;
+            this.contacts = contacts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                for (int i = from; i < to; i++) {
+                    Interaction interaction = interactions.get(i);
+                    contacts[i] = service.isContact(
+                            interaction.trackedA(), interaction.trackedB());
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ContactChunk(interactions, service, contacts, from, middle),
+                    new ContactChunk(interactions, service, contacts, middle, to));
+        }
+    }
+}
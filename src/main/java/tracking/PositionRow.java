@@ -0,0 +1,102 @@
+package tracking;
+
+/**
+ * Местоположение отслеживаемого объекта.
+ * Пока объект не добавлен в {@link TrackingService}, координаты хранятся здесь же,
+ * после добавления - в строке {@link PositionTable} сервиса.
+ * Объект хранится в одном сервисе: при добавлении в другой он
+ * снимается с отслеживания в прежнем.
+ */
+public final class PositionRow {
+
+    /** Сервис, отслеживающий объект */
+    private TrackingService service;
+    /** Таблица, в которой хранится местоположение */
+    private PositionTable table;
+    /** Номер строки в таблице */
+    private int handle = -1;
+    /** Местоположение по OX вне таблицы */
+    private double x;
+    /** Местоположение по OY вне таблицы */
+    private double y;
+    /** Время последнего измерения вне таблицы, нс */
+    private long time;
+
+
+    public double x() {
+        return table == null ? x : table.x(handle);
+    }
+    public double y() {
+        return table == null ? y : table.y(handle);
+    }
+    /**
+     * Время последнего измерения
+     * @return время, нс
+     */
+    public long time() {
+        return table == null ? time : table.time(handle);
+    }
+    /**
+     * Запись нового местоположения
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    public void set(double x, double y, long time) {
+        if (table == null) {
+            this.x = x;
+            this.y = y;
+            this.time = time;
+            return;
+        }
+        table.set(handle, x, y, time);
+    }
+
+
+    /**
+     * Перенос местоположения в строку таблицы
+     * @param service сервис
+     * @param table таблица сервиса
+     * @param handle номер строки
+     * @throws IllegalStateException если объект уже хранится в другой таблице
+     */
+    void attach(TrackingService service, PositionTable table, int handle) {
+        if (this.table != null) {
+            throw new IllegalStateException("Already tracked by another service");
+        }
+        this.service = service;
+        this.table = table;
+        this.handle = handle;
+    }
+    /** Возврат местоположения из таблицы в объект */
+    void detach() {
+        x = x();
+        y = y();
+        time = time();
+        service = null;
+        table = null;
+        handle = -1;
+    }
+    /**
+     * Сервис, отслеживающий объект
+     * @return сервис или {@code null}
+     */
+    TrackingService service() {
+        return service;
+    }
+    /**
+     * Хранится ли местоположение в таблице какого-либо сервиса
+     * @return {@code true}, если хранится
+     */
+    boolean attached() {
+        return table != null;
+    }
+    /**
+     * Номер строки в таблице
+     * @param table таблица
+     * @return номер строки или -1, если объект хранится не в этой таблице
+     */
+    int handle(PositionTable table) {
+        return this.table == table ? handle : -1;
+    }
+}
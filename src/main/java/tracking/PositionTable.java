@@ -0,0 +1,198 @@
+package tracking;
+
+import java.util.Arrays;
+
+/**
+ * Таблица текущих местоположений отслеживаемых объектов.
+ * Координаты хранятся плотными столбцами, строка объекта определяется
+ * номером (handle), выданным при добавлении в {@link TrackingService}.
+ * Строка удалённого объекта помечается как {@link #REMOVED} и отдаётся
+ * следующему добавленному объекту. Строки сотрудников, на которые
+ * ссылается журнал приходов и уходов, закреплены: они не переиспользуются,
+ * поэтому по номеру из журнала всегда можно найти сотрудника.
+ */
+public class PositionTable {
+
+    /** Строка удалённого объекта */
+    public static final byte REMOVED = 0;
+    /** Строка сотрудника */
+    public static final byte EMPLOYEE = 1;
+    /** Строка животного */
+    public static final byte ANIMAL = 2;
+
+
+    /** Местоположения по OX */
+    private double[] xs;
+    /** Местоположения по OY */
+    private double[] ys;
+    /** Время последнего измерения, нс */
+    private long[] times;
+    /** Вид объекта */
+    private byte[] kinds;
+    /** Объекты */
+    private Tracked[] objects;
+    /** Изменилось ли местоположение с прошлого такта */
+    private boolean[] moved;
+    /** Номера строк с изменившимся местоположением */
+    private final IntList movedRows;
+    /** Закреплена ли строка журналом приходов и уходов */
+    private boolean[] pinned;
+    /** Освободившиеся строки удалённых объектов */
+    private final IntList free;
+    /** Количество строк */
+    private int size;
+
+
+    /** Пустая таблица */
+    PositionTable() {
+        xs = new double[16];
+        ys = new double[16];
+        times = new long[16];
+        kinds = new byte[16];
+        objects = new Tracked[16];
+        moved = new boolean[16];
+        movedRows = new IntList();
+        pinned = new boolean[16];
+        free = new IntList();
+    }
+
+
+    /**
+     * Добавление строки: занимается освободившаяся строка, если она есть
+     * @param tracked объект
+     * @param kind вид объекта
+     * @param x по OX
+     * @param y по OY
+     * @param time время последнего измерения, нс
+     * @return номер строки
+     */
+    int add(Tracked tracked, byte kind, double x, double y, long time) {
+        if (free.size() > 0) {
+            int handle = free.get(free.size() - 1);
+            free.removeAt(free.size() - 1);
+            xs[handle] = x;
+            ys[handle] = y;
+            times[handle] = time;
+            kinds[handle] = kind;
+            objects[handle] = tracked;
+            markMoved(handle);
+            return handle;
+        }
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            times = Arrays.copyOf(times, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+            moved = Arrays.copyOf(moved, capacity);
+            pinned = Arrays.copyOf(pinned, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        times[size] = time;
+        kinds[size] = kind;
+        objects[size] = tracked;
+        markMoved(size);
+        return size++;
+    }
+    /**
+     * Пометка строки удалённой; незакреплённая строка освобождается
+     * @param handle номер строки
+     */
+    void remove(int handle) {
+        kinds[handle] = REMOVED;
+        if (!pinned[handle]) {
+            objects[handle] = null;
+            free.add(handle);
+        }
+    }
+    /**
+     * Закрепление строки: на неё ссылается журнал, и после удаления
+     * объекта она не переиспользуется
+     * @param handle номер строки
+     */
+    void pin(int handle) {
+        pinned[handle] = true;
+    }
+    /**
+     * Запись местоположения
+     * @param handle номер строки
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    void set(int handle, double x, double y, long time) {
+        times[handle] = time;
+        if (xs[handle] == x && ys[handle] == y) {
+            return;
+        }
+        xs[handle] = x;
+        ys[handle] = y;
+        markMoved(handle);
+    }
+
+
+    /**
+     * Пометка строки переместившейся
+     * @param handle номер строки
+     */
+    void markMoved(int handle) {
+        if (moved[handle]) {
+            return;
+        }
+        moved[handle] = true;
+        movedRows.add(handle);
+    }
+    /**
+     * Номера строк, местоположение которых изменилось с прошлого такта
+     * @return номера строк
+     */
+    IntList movedRows() {
+        return movedRows;
+    }
+    /** Сброс пометок о перемещении в конце такта */
+    void clearMoved() {
+        for (int i = 0; i < movedRows.size(); i++) {
+            moved[movedRows.get(i)] = false;
+        }
+        movedRows.clear();
+    }
+
+
+    /**
+     * Есть ли контакт между объектами двух строк
+     * @param a первая строка
+     * @param b вторая строка
+     * @param distance расстояние контакта
+     * @return {@code true}, если объекты не дальше {@code distance}
+     */
+    public boolean isContact(int a, int b, double distance) {
+        double dx = xs[b] - xs[a];
+        double dy = ys[b] - ys[a];
+        return dx * dx + dy * dy <= distance * distance;
+    }
+
+    public double x(int handle) {
+        return xs[handle];
+    }
+    public double y(int handle) {
+        return ys[handle];
+    }
+    public long time(int handle) {
+        return times[handle];
+    }
+    public byte kind(int handle) {
+        return kinds[handle];
+    }
+    public Tracked tracked(int handle) {
+        return objects[handle];
+    }
+    /**
+     * Количество строк, включая строки удалённых объектов
+     * @return количество строк
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,383 @@
+package tracking;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Упорядочивание измерений перед {@link TrackingService}.
+ * Шлюзы присылают измерения не по порядку и с опозданием, поэтому они
+ * копятся в буфере каждого датчика, отсортированном по времени измерения.
+ * Граница (watermark) - самое позднее полученное время минус допустимое
+ * опоздание: всё, что не позже границы, передаётся сервису одним пакетом
+ * в порядке времени. Граница сдвигается шагами не меньше заданного или
+ * явным вызовом {@link #poll()}, поэтому один пакет собирает измерения
+ * многих датчиков. Измерение, пришедшее после того, как граница его
+ * миновала, отбрасывается и учитывается в счётчике опоздавших.
+ * <p>
+ * Буферы заводятся только для датчиков, которые отслеживает сервис, и
+ * освобождаются, как только всё накопленное в них передано. Буферы с
+ * измерениями упорядочены в куче по самому старому измерению.
+ * Буфер датчика ограничен: при переполнении граница сдвигается до его
+ * самого старого измерения, и накопленное до неё передаётся сервису.
+ */
+public class ReorderBuffer {
+
+    /** Шаг границы по умолчанию, нс */
+    public static final long DEFAULT_STEP = TimeUnit.SECONDS.toNanos(1);
+    /** Размер пакета, передаваемого сервису */
+    private static final int BATCH = 1024;
+    /** Начальный размер буфера датчика */
+    private static final int INITIAL = 16;
+
+    /** Сервис, получающий упорядоченные измерения */
+    private final TrackingService service;
+    /** Допустимое опоздание, нс */
+    private final long lateness;
+    /** Максимум измерений в буфере одного датчика */
+    private final int capacity;
+    /** Наименьший шаг границы, нс */
+    private final long step;
+
+    /** Буферы датчиков, в которых есть измерения */
+    private final Map<Integer, SensorBuffer> buffers;
+    /** Освобождённые буферы для повторного использования */
+    private final Deque<SensorBuffer> spare;
+    /** Куча буферов по самому старому измерению */
+    private SensorBuffer[] heap = new SensorBuffer[INITIAL];
+    private int heapSize;
+    /** Количество измерений, ожидающих передачи */
+    private int pendingFixes;
+    /** Самое позднее полученное время измерения */
+    private long latest = Long.MIN_VALUE;
+    /** Граница, до которой измерения уже переданы сервису */
+    private long released = Long.MIN_VALUE;
+    /** Количество отброшенных опоздавших измерений */
+    private long lateFixes;
+    /** Количество отброшенных измерений неизвестных датчиков */
+    private long unknownFixes;
+    /** Количество сдвигов границы из-за переполнения буфера */
+    private long overflows;
+
+    /* Пакет для передачи сервису */
+    private final int[] ids = new int[BATCH];
+    private final double[] xs = new double[BATCH];
+    private final double[] ys = new double[BATCH];
+    private final long[] times = new long[BATCH];
+    private int count;
+
+
+    /**
+     * Буфер упорядочивания с шагом границы 1 с
+     * @param service сервис отслеживания
+     * @param lateness допустимое опоздание, нс
+     * @param capacity максимум измерений в буфере одного датчика
+     */
+    public ReorderBuffer(TrackingService service, long lateness, int capacity) {
+        this(service, lateness, capacity, DEFAULT_STEP);
+    }
+    /**
+     * Буфер упорядочивания
+     * @param service сервис отслеживания
+     * @param lateness допустимое опоздание, нс
+     * @param capacity максимум измерений в буфере одного датчика
+     * @param step наименьший шаг границы, нс
+     */
+    public ReorderBuffer(TrackingService service, long lateness, int capacity, long step) {
+        if (lateness < 0 || capacity < 1 || step < 1) {
+            throw new IllegalArgumentException("lateness=" + lateness + ", capacity=" + capacity +
+                    ", step=" + step);
+        }
+        this.service = service;
+        this.lateness = lateness;
+        this.capacity = capacity;
+        this.step = step;
+        buffers = new HashMap<>();
+        spare = new ArrayDeque<>();
+    }
+
+
+    /**
+     * Получение измерения от шлюза
+     * @param sensorId идентификатор датчика
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     * @return {@code false}, если измерение опоздало или датчик не отслеживается, и оно отброшено
+     */
+    public boolean offer(int sensorId, double x, double y, long time) {
+        if (time <= released) {
+            lateFixes++;
+            return false;
+        }
+        SensorBuffer buffer = buffers.get(sensorId);
+        if (buffer != null && buffer.size == capacity) {
+            overflows++;
+            release(buffer.time(0));
+            /* Граница миновала измерение, которое старше вытесненных */
+            if (time <= released) {
+                lateFixes++;
+                return false;
+            }
+            /* Буфер мог опустеть и освободиться */
+            buffer = buffers.get(sensorId);
+        }
+        if (buffer == null) {
+            if (service.getTracked(sensorId) == null) {
+                unknownFixes++;
+                return false;
+            }
+            buffer = spare.isEmpty() ? new SensorBuffer(Math.min(capacity, INITIAL)) : spare.pop();
+            buffer.sensorId = sensorId;
+            buffers.put(sensorId, buffer);
+        }
+        int position = buffer.insert(x, y, time, capacity);
+        pendingFixes++;
+        if (buffer.index < 0) {
+            push(buffer);
+        } else if (position == 0) {
+            siftUp(buffer.index);
+        }
+
+        if (time > latest) {
+            latest = time;
+            long watermark = latest - lateness;
+            if (watermark > released && (released == Long.MIN_VALUE || watermark - released >= step)) {
+                release(watermark);
+            }
+        }
+        return true;
+    }
+    /**
+     * Сдвиг границы до самого позднего полученного времени минус допустимое
+     * опоздание независимо от шага, например по таймеру
+     */
+    public void poll() {
+        if (latest - lateness > released) {
+            release(latest - lateness);
+        }
+    }
+    /**
+     * Передача сервису всех накопленных измерений, например при остановке
+     * или когда шлюзы долго молчат
+     */
+    public void flush() {
+        if (latest > released) {
+            release(latest);
+        }
+    }
+
+
+    /**
+     * Сдвиг границы и передача сервису измерений не позже неё
+     * @param watermark новая граница, нс
+     */
+    private void release(long watermark) {
+        released = watermark;
+        while (heapSize > 0 && heap[0].time(0) <= watermark) {
+            SensorBuffer buffer = heap[0];
+            ids[count] = buffer.sensorId;
+            xs[count] = buffer.x(0);
+            ys[count] = buffer.y(0);
+            times[count] = buffer.time(0);
+            buffer.removeFirst();
+            pendingFixes--;
+            if (++count == BATCH) {
+                send();
+            }
+            if (buffer.size > 0) {
+                siftDown(0);
+                continue;
+            }
+            /* Всё передано - буфер освобождается */
+            SensorBuffer last = heap[--heapSize];
+            heap[heapSize] = null;
+            buffer.index = -1;
+            if (heapSize > 0) {
+                place(last, 0);
+                siftDown(0);
+            }
+            buffers.remove(buffer.sensorId);
+            spare.push(buffer);
+        }
+        send();
+    }
+    /** Передача пакета сервису */
+    private void send() {
+        if (count == 0) {
+            return;
+        }
+        service.updatePositions(ids, xs, ys, times, count);
+        count = 0;
+    }
+
+
+    //=========== Куча буферов ===========//
+    private void push(SensorBuffer buffer) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heapSize * 2);
+        }
+        place(buffer, heapSize++);
+        siftUp(buffer.index);
+    }
+    private void siftUp(int i) {
+        SensorBuffer buffer = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!before(buffer, heap[parent])) {
+                break;
+            }
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(buffer, i);
+    }
+    private void siftDown(int i) {
+        SensorBuffer buffer = heap[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], buffer)) {
+                break;
+            }
+            place(heap[child], i);
+            i = child;
+        }
+        place(buffer, i);
+    }
+    private void place(SensorBuffer buffer, int i) {
+        heap[i] = buffer;
+        buffer.index = i;
+    }
+    /** Порядок буферов: по самому старому измерению, затем по датчику */
+    private static boolean before(SensorBuffer a, SensorBuffer b) {
+        long timeA = a.time(0);
+        long timeB = b.time(0);
+        return timeA < timeB || (timeA == timeB && a.sensorId < b.sensorId);
+    }
+    //====================================//
+
+
+    /**
+     * Количество измерений, отброшенных из-за опоздания
+     * @return количество
+     */
+    public long getLateFixes() {
+        return lateFixes;
+    }
+    /**
+     * Количество измерений, отброшенных из-за неизвестного идентификатора датчика
+     * @return количество
+     */
+    public long getUnknownFixes() {
+        return unknownFixes;
+    }
+    /**
+     * Количество преждевременных сдвигов границы из-за переполнения буфера датчика
+     * @return количество
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+    /**
+     * Граница, до которой измерения переданы сервису
+     * @return время, нс
+     */
+    public long getWatermark() {
+        return released;
+    }
+    /**
+     * Количество измерений, ожидающих передачи
+     * @return количество
+     */
+    public int getPending() {
+        return pendingFixes;
+    }
+
+
+    /**
+     * Кольцевой буфер измерений одного датчика, упорядоченный по времени.
+     * Растёт удвоением до наибольшего размера.
+     */
+    private static class SensorBuffer {
+
+        private int sensorId;
+        private double[] xs;
+        private double[] ys;
+        private long[] times;
+        /** Начало кольца */
+        private int start;
+        /** Количество измерений */
+        private int size;
+        /** Место в куче; -1 - буфер пуст и не в куче */
+        private int index = -1;
+
+        SensorBuffer(int length) {
+            xs = new double[length];
+            ys = new double[length];
+            times = new long[length];
+        }
+
+        /**
+         * Вставка измерения с сохранением порядка: обычно оно самое новое,
+         * поэтому место ищется с конца
+         * @return место измерения в буфере
+         */
+        int insert(double x, double y, long time, int capacity) {
+            if (size == times.length) {
+                grow(capacity);
+            }
+            int i = size;
+            while (i > 0 && time(i - 1) > time) {
+                int to = slot(i);
+                int from = slot(i - 1);
+                xs[to] = xs[from];
+                ys[to] = ys[from];
+                times[to] = times[from];
+                i--;
+            }
+            int to = slot(i);
+            xs[to] = x;
+            ys[to] = y;
+            times[to] = time;
+            size++;
+            return i;
+        }
+        void removeFirst() {
+            start = slot(1);
+            size--;
+        }
+        double x(int i) {
+            return xs[slot(i)];
+        }
+        double y(int i) {
+            return ys[slot(i)];
+        }
+        long time(int i) {
+            return times[slot(i)];
+        }
+        private int slot(int i) {
+            return (start + i) % times.length;
+        }
+        /** Увеличение кольца с переносом измерений в начало */
+        private void grow(int capacity) {
+            int length = Math.min(capacity, times.length * 2);
+            double[] newXs = new double[length];
+            double[] newYs = new double[length];
+            long[] newTimes = new long[length];
+            for (int i = 0; i < size; i++) {
+                newXs[i] = x(i);
+                newYs[i] = y(i);
+                newTimes[i] = time(i);
+            }
+            xs = newXs;
+            ys = newYs;
+            times = newTimes;
+            start = 0;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package tracking;
+
+import zoo.IllegalAction;
+import zoo.Shift;
+import zoo.animal.Animal;
+import zoo.employee.Employee;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Сводки для отчётов: время смен, время контактов и количество нарушений,
+ * заранее сложенные по часам и по дням для каждого сотрудника, животного
+ * и пары сотрудников. Сводки обновляются по событиям сервиса, поэтому
+ * отчёт за неделю или месяц читает несколько десятков ячеек вместо всей истории.
+ * <p>
+ * Подключается подпиской: {@code service.subscribe(new Rollups())}.
+ * Промежуток, пересекающий границу часа или суток, делится между ячейками.
+ * Часы и сутки считаются в одном часовом поясе, поэтому сутки всегда
+ * складываются из целых часов, в том числе в поясах со смещением
+ * не на целый час и при переводе часов.
+ * Запросы можно выполнять из других потоков.
+ */
+public class Rollups implements TrackingListener {
+
+    /** Показатель сводки */
+    public enum Metric {
+        /** Время смен, мс */
+        SHIFT,
+        /** Время контактов, мс */
+        CONTACT,
+        /** Количество нарушений */
+        ILLEGAL
+    }
+
+    private static final int METRICS = Metric.values().length;
+
+
+    /** Часовой пояс, в котором считаются часы и сутки */
+    private final ZoneId zone;
+    /** Сводки сотрудников и животных */
+    private final Map<Tracked, Buckets> subjects;
+    /** Сводки пар сотрудников по ключу {@link Interaction#key()} */
+    private final Map<Long, Buckets> pairs;
+
+
+    /** Сводки в часовом поясе системы */
+    public Rollups() {
+        this(ZoneId.systemDefault());
+    }
+    /**
+     * Сводки
+     * @param zone часовой пояс, в котором считаются часы и сутки
+     */
+    public Rollups(ZoneId zone) {
+        this.zone = zone;
+        subjects = new HashMap<>();
+        pairs = new HashMap<>();
+    }
+
+
+    //=========== События сервиса ===========//
+    @Override
+    public synchronized void contactClosed(Interaction interaction) {
+        long begin = interaction.getBegin().getTime();
+        long end = interaction.getEnd().getTime();
+        add(buckets(interaction.trackedA()), Metric.CONTACT, begin, end);
+        add(buckets(interaction.trackedB()), Metric.CONTACT, begin, end);
+        if (!(interaction.trackedB() instanceof Animal)) {
+            add(pairBuckets(interaction.key()), Metric.CONTACT, begin, end);
+        }
+    }
+    @Override
+    public synchronized void shiftEnd(Employee employee, Date end) {
+        /* События доставляются пакетом: смена могла уже начаться снова */
+        List<Shift> shifts = employee.getShifts();
+        for (int i = shifts.size() - 1; i >= 0; i--) {
+            if (shifts.get(i).getEnd() == end) {
+                add(buckets(employee), Metric.SHIFT,
+                        shifts.get(i).getBegin().getTime(), end.getTime());
+                return;
+            }
+        }
+    }
+    @Override
+    public synchronized void illegalAction(IllegalAction illegalAction) {
+        long time = illegalAction.getDate().getTime();
+        count(buckets(illegalAction.getEmployee()), Metric.ILLEGAL, time);
+        count(buckets(illegalAction.getAnimal()), Metric.ILLEGAL, time);
+    }
+    //=======================================//
+
+
+    //=========== Запросы ===========//
+    /**
+     * Показатель сотрудника или животного за несколько дней
+     * @param tracked сотрудник или животное
+     * @param metric показатель
+     * @param from первый день
+     * @param to последний день (включительно)
+     * @return сумма: мс или количество
+     */
+    public synchronized long total(Tracked tracked, Metric metric, LocalDate from, LocalDate to) {
+        return total(subjects.get(tracked), metric, from, to);
+    }
+    /**
+     * Время контактов пары сотрудников за несколько дней
+     * @param employeeA первый сотрудник
+     * @param employeeB второй сотрудник
+     * @param from первый день
+     * @param to последний день (включительно)
+     * @return время, мс
+     */
+    public synchronized long pairTotal(Tracked employeeA, Tracked employeeB,
+                                       LocalDate from, LocalDate to) {
+        return total(pairs.get(Interaction.key(employeeA, employeeB)), Metric.CONTACT, from, to);
+    }
+    /**
+     * Показатель сотрудника или животного за час
+     * @param tracked сотрудник или животное
+     * @param metric показатель
+     * @param hour любой момент внутри часа
+     * @return сумма: мс или количество
+     */
+    public synchronized long hour(Tracked tracked, Metric metric, Date hour) {
+        Buckets buckets = subjects.get(tracked);
+        if (buckets == null) {
+            return 0;
+        }
+        long[] values = buckets.hours.get(hourStart(hour.getTime()).toInstant().toEpochMilli());
+        return values == null ? 0 : values[metric.ordinal()];
+    }
+    //===============================//
+
+
+    private long total(Buckets buckets, Metric metric, LocalDate from, LocalDate to) {
+        if (buckets == null) {
+            return 0;
+        }
+        long sum = 0;
+        for (long day = from.toEpochDay(); day <= to.toEpochDay(); day++) {
+            long[] values = buckets.days.get(day);
+            sum += values == null ? 0 : values[metric.ordinal()];
+        }
+        return sum;
+    }
+    /**
+     * Раскладка промежутка по часам и суткам
+     * @param buckets сводки
+     * @param metric показатель
+     * @param begin начало, мс
+     * @param end конец, мс
+     */
+    private void add(Buckets buckets, Metric metric, long begin, long end) {
+        LocalDate day = Instant.ofEpochMilli(begin).atZone(zone).toLocalDate();
+        long midnight = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        while (begin < end) {
+            ZonedDateTime hour = hourStart(begin);
+            long to = Math.min(end, Math.min(hour.plusHours(1).toInstant().toEpochMilli(), midnight));
+            buckets.hour(hour.toInstant().toEpochMilli())[metric.ordinal()] += to - begin;
+            buckets.day(day.toEpochDay())[metric.ordinal()] += to - begin;
+            begin = to;
+            if (begin == midnight) {
+                day = day.plusDays(1);
+                midnight = day.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            }
+        }
+    }
+    private void count(Buckets buckets, Metric metric, long time) {
+        buckets.hour(hourStart(time).toInstant().toEpochMilli())[metric.ordinal()]++;
+        buckets.day(Instant.ofEpochMilli(time).atZone(zone).toLocalDate().toEpochDay())
+                [metric.ordinal()]++;
+    }
+    /**
+     * Начало часа в часовом поясе сводок
+     * @param time момент, мс
+     */
+    private ZonedDateTime hourStart(long time) {
+        return Instant.ofEpochMilli(time).atZone(zone).truncatedTo(ChronoUnit.HOURS);
+    }
+    private Buckets buckets(Tracked tracked) {
+        return subjects.computeIfAbsent(tracked, key -> new Buckets());
+    }
+    private Buckets pairBuckets(long key) {
+        return pairs.computeIfAbsent(key, ignored -> new Buckets());
+    }
+
+
+    /** Ячейки одного субъекта: по началу часа, мс от начала эпохи, и по номеру дня */
+    private static class Buckets {
+
+        private final Map<Long, long[]> hours = new HashMap<>();
+        private final Map<Long, long[]> days = new HashMap<>();
+
+        long[] hour(long hour) {
+            return hours.computeIfAbsent(hour, key -> new long[METRICS]);
+        }
+        long[] day(long day) {
+            return days.computeIfAbsent(day, key -> new long[METRICS]);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package tracking;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Неизменяемый сжатый блок точек журнала перемещений.
+ * Время хранится разностями разностей: при равномерных измерениях
+ * на точку уходит один бит. Координаты хранятся как XOR с предыдущим
+ * значением, от которого остаются только значащие биты: у медленно
+ * движущегося объекта совпадают знак, порядок и старшие разряды мантиссы.
+ * Читается блок только последовательно, от первой точки.
+ */
+final class SealedBlock {
+
+    /** Упакованные биты */
+    private final byte[] data;
+    /** Количество точек */
+    private final int count;
+
+
+    private SealedBlock(byte[] data, int count) {
+        this.data = data;
+        this.count = count;
+    }
+
+    /**
+     * Сжатие точек
+     * @param xs местоположения по OX
+     * @param ys местоположения по OY
+     * @param times время, нс
+     * @param count количество точек
+     * @return блок
+     */
+    static SealedBlock seal(double[] xs, double[] ys, long[] times, int count) {
+        BitWriter out = new BitWriter(count * 4 + 32);
+        long previousTime = 0;
+        long previousDelta = 0;
+        FloatState x = new FloatState();
+        FloatState y = new FloatState();
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                out.write(times[0], 64);
+            } else if (i == 1) {
+                previousDelta = times[1] - previousTime;
+                out.write(previousDelta, 64);
+            } else {
+                long delta = times[i] - previousTime;
+                writeDeltaOfDelta(out, delta - previousDelta);
+                previousDelta = delta;
+            }
+            previousTime = times[i];
+            x.write(out, xs[i]);
+            y.write(out, ys[i]);
+        }
+        return new SealedBlock(out.toArray(), count);
+    }
+
+    /**
+     * Чтение блока, записанного {@link #write(DataOutput)}
+     * @param in поток
+     * @return блок
+     * @throws IOException если чтение не удалось
+     */
+    static SealedBlock read(DataInput in) throws IOException {
+        int count = in.readInt();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new SealedBlock(data, count);
+    }
+    /**
+     * Запись блока как есть, без распаковки: количество точек,
+     * размер и сжатые данные
+     * @param out поток
+     * @throws IOException если запись не удалась
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(count);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Размер сжатых данных
+     * @return байт
+     */
+    int bytes() {
+        return data.length;
+    }
+    /**
+     * Количество точек
+     * @return количество
+     */
+    int size() {
+        return count;
+    }
+    /**
+     * Распаковка всего блока
+     * @param xs массив для местоположений по OX
+     * @param ys массив для местоположений по OY
+     * @param times массив для времени
+     */
+    void decode(double[] xs, double[] ys, long[] times) {
+        Decoder decoder = decoder();
+        for (int i = 0; decoder.next(); i++) {
+            xs[i] = decoder.x();
+            ys[i] = decoder.y();
+            times[i] = decoder.time();
+        }
+    }
+    Decoder decoder() {
+        return new Decoder();
+    }
+
+
+    /* Корзины разностей разностей: код из префикса и разрядность значения */
+    private static void writeDeltaOfDelta(BitWriter out, long value) {
+        if (value == 0) {
+            out.write(0, 1);
+        } else if (fits(value, 16)) {
+            out.write(0b10, 2);
+            out.write(value, 16);
+        } else if (fits(value, 32)) {
+            out.write(0b110, 3);
+            out.write(value, 32);
+        } else if (fits(value, 48)) {
+            out.write(0b1110, 4);
+            out.write(value, 48);
+        } else {
+            out.write(0b1111, 4);
+            out.write(value, 64);
+        }
+    }
+    private static long readDeltaOfDelta(BitReader in) {
+        if (in.read(1) == 0) {
+            return 0;
+        }
+        if (in.read(1) == 0) {
+            return in.readSigned(16);
+        }
+        if (in.read(1) == 0) {
+            return in.readSigned(32);
+        }
+        return in.read(1) == 0 ? in.readSigned(48) : in.read(64);
+    }
+    private static boolean fits(long value, int bits) {
+        return value >= -(1L << (bits - 1)) && value < (1L << (bits - 1));
+    }
+
+
+    /** Последовательное чтение блока */
+    final class Decoder {
+
+        private final BitReader in = new BitReader(data);
+        private final FloatState xState = new FloatState();
+        private final FloatState yState = new FloatState();
+        private int index = -1;
+        private long time;
+        private long delta;
+        private double x;
+        private double y;
+
+        /**
+         * Переход к следующей точке
+         * @return {@code false}, если точки закончились
+         */
+        boolean next() {
+            if (index + 1 >= count) {
+                return false;
+            }
+            index++;
+            if (index == 0) {
+                time = in.read(64);
+            } else if (index == 1) {
+                delta = in.read(64);
+                time += delta;
+            } else {
+                delta += readDeltaOfDelta(in);
+                time += delta;
+            }
+            x = xState.read(in);
+            y = yState.read(in);
+            return true;
+        }
+        long time() {
+            return time;
+        }
+        double x() {
+            return x;
+        }
+        double y() {
+            return y;
+        }
+    }
+
+
+    /** Состояние XOR-кодирования одной координаты */
+    private static final class FloatState {
+
+        private long previous;
+        /** Окно значащих битов прошлого значения; {@code -1} - окна ещё нет */
+        private int leading = -1;
+        private int trailing;
+
+        void write(BitWriter out, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                return;
+            }
+            out.write(1, 1);
+            int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trail = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                /* Значащие биты помещаются в окно прошлого значения */
+                out.write(0, 1);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+                return;
+            }
+            leading = lead;
+            trailing = trail;
+            int length = 64 - lead - trail;
+            out.write(1, 1);
+            out.write(lead, 5);
+            /* Длина 64 записывается как 0 */
+            out.write(length & 63, 6);
+            out.write(xor >>> trail, length);
+        }
+        double read(BitReader in) {
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    int length = (int) in.read(6);
+                    trailing = 64 - leading - (length == 0 ? 64 : length);
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+
+    /** Запись битов, старшие первыми */
+    private static final class BitWriter {
+
+        private byte[] bytes;
+        private long position;
+
+        BitWriter(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * Запись младших {@code bits} битов значения
+         * @param value значение
+         * @param bits количество битов, от 0 до 64
+         */
+        void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                int index = (int) (position >>> 3);
+                if (index == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                if (((value >>> i) & 1) != 0) {
+                    bytes[index] |= (byte) (0x80 >>> (position & 7));
+                }
+                position++;
+            }
+        }
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, (int) ((position + 7) >>> 3));
+        }
+    }
+
+    /** Чтение битов, старшие первыми */
+    private static final class BitReader {
+
+        private final byte[] bytes;
+        private long position;
+
+        BitReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++) {
+                int bit = (bytes[(int) (position >>> 3)] >>> (7 - (position & 7))) & 1;
+                value = (value << 1) | bit;
+                position++;
+            }
+            return value;
+        }
+        long readSigned(int bits) {
+            return read(bits) << (64 - bits) >> (64 - bits);
+        }
+    }
+}
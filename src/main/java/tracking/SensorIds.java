@@ -0,0 +1,44 @@
+package tracking;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Выдача уникальных числовых идентификаторов датчиков */
+public final class SensorIds {
+
+    /** Следующий свободный идентификатор */
+    private static final AtomicInteger NEXT = new AtomicInteger();
+
+
+    private SensorIds() {
+    }
+
+
+    /**
+     * Новый идентификатор датчика
+     * @return id
+     * @throws IllegalStateException если идентификаторы закончились
+     */
+    public static int next() {
+        return NEXT.getAndUpdate(id -> {
+            if (id == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Sensor ids are exhausted");
+            }
+            return id + 1;
+        });
+    }
+    /**
+     * Учёт идентификатора, выданного извне (например, записанного на датчике):
+     * последующие вызовы {@link #next()} его не повторят
+     * @param sensorId идентификатор датчика
+     * @return тот же идентификатор
+     * @throws IllegalArgumentException если идентификатор равен {@link Integer#MAX_VALUE}:
+     * за ним нет следующего
+     */
+    public static int reserve(int sensorId) {
+        if (sensorId == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("sensorId=" + sensorId);
+        }
+        NEXT.accumulateAndGet(sensorId + 1, Math::max);
+        return sensorId;
+    }
+}
@@ -0,0 +1,136 @@
+package tracking;
+
+import java.util.Arrays;
+
+/**
+ * Поиск отслеживаемого объекта по идентификатору датчика.
+ * Открытая адресация без упаковки ключей, поэтому поиск не создаёт объектов.
+ */
+class SensorIndex {
+
+    /** Свободная ячейка */
+    private static final int EMPTY = -1;
+
+    /** Идентификаторы датчиков */
+    private int[] keys;
+    /** Объекты */
+    private Tracked[] values;
+    /** Количество объектов */
+    private int size;
+
+
+    /** Пустой индекс */
+    SensorIndex() {
+        keys = new int[16];
+        values = new Tracked[16];
+        Arrays.fill(keys, EMPTY);
+    }
+
+
+    /**
+     * Объект по идентификатору датчика
+     * @param sensorId идентификатор датчика
+     * @return объект или {@code null}
+     */
+    Tracked get(int sensorId) {
+        int mask = keys.length - 1;
+        for (int i = hash(sensorId) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == sensorId) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+    /**
+     * Добавление объекта
+     * @param tracked объект
+     * @throws IllegalArgumentException если датчик с таким идентификатором уже есть
+     */
+    void put(Tracked tracked) {
+        int sensorId = tracked.getSensorId();
+        if (sensorId < 0) {
+            throw new IllegalArgumentException("Negative sensor id: " + sensorId);
+        }
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        int mask = keys.length - 1;
+        int i = hash(sensorId) & mask;
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] != sensorId) {
+                continue;
+            }
+            if (values[i] != tracked) {
+                throw new IllegalArgumentException("Sensor id " + sensorId +
+                        " is already used by " + values[i].getId());
+            }
+            return;
+        }
+        keys[i] = sensorId;
+        values[i] = tracked;
+        size++;
+    }
+    /**
+     * Удаление объекта
+     * @param tracked объект
+     */
+    void remove(Tracked tracked) {
+        int mask = keys.length - 1;
+        int i = hash(tracked.getSensorId()) & mask;
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == tracked.getSensorId() && values[i] == tracked) {
+                break;
+            }
+        }
+        if (keys[i] == EMPTY) {
+            return;
+        }
+        size--;
+        /* Сдвигаем следующие элементы цепочки на освободившееся место */
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) < ((j - i) & mask)) {
+                continue;
+            }
+            keys[i] = keys[j];
+            values[i] = values[j];
+            i = j;
+        }
+        keys[i] = EMPTY;
+        values[i] = null;
+    }
+
+
+    /**
+     * Увеличение таблицы
+     * @param capacity новый размер (степень двойки)
+     */
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        Tracked[] oldValues = values;
+        keys = new int[capacity];
+        values = new Tracked[capacity];
+        Arrays.fill(keys, EMPTY);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == EMPTY) {
+                continue;
+            }
+            int i = hash(oldKeys[j]) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+    /**
+     * Перемешивание битов идентификатора
+     * @param key идентификатор
+     * @return хеш
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
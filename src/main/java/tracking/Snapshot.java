@@ -0,0 +1,416 @@
+package tracking;
+
+import zoo.IllegalAction;
+import zoo.Shift;
+import zoo.Zoo;
+import zoo.animal.Animal;
+import zoo.animal.DiseaseNote;
+import zoo.employee.Employee;
+import zoo.employee.WardInteraction;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Снимок состояния зоопарка и его сервиса отслеживания.
+ * В снимок входят сотрудники и животные (с идентификаторами датчиков,
+ * местоположением и журналами перемещений), смены, контакты с подопечными,
+ * журналы сервиса, текущие контакты и номер записи {@link EventLog},
+ * на которой снимок сделан. При восстановлении из журнала применяются
+ * только записи после этого номера, измерения заново не обрабатываются.
+ * Запечатанные блоки журналов перемещений пишутся сжатыми как есть,
+ * точками - только последний, открытый блок.
+ * <p>
+ * Объекты в снимке ссылаются друг на друга по идентификаторам датчиков.
+ * Строковые идентификаторы ({@link Tracked#getId()}) выдаются заново.
+ */
+public final class Snapshot {
+
+    /** Признак файла снимка */
+    private static final int MAGIC = 0x5A4F4F53;
+    /** Версия формата */
+    private static final int VERSION = 4;
+
+    /** Вид объекта в снимке */
+    private static final byte EMPLOYEE = 1;
+    private static final byte ANIMAL = 2;
+
+    /** Отсутствующая дата */
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+
+    private Snapshot() {
+    }
+
+
+    //=========== Запись снимка ===========//
+    /**
+     * Запись снимка. Файл сначала пишется рядом под временным именем
+     * и только затем заменяет прежний снимок, поэтому сбой во время
+     * записи не портит последний удачный снимок.
+     * Если к сервису подключён журнал событий, он сбрасывается на диск.
+     * @param zoo зоопарк
+     * @param file файл снимка
+     * @throws IOException если запись не удалась
+     */
+    public static void write(Zoo zoo, Path file) throws IOException {
+        TrackingService service = zoo.getTrackingService();
+        EventLog log = service.getEventLog();
+        if (log != null) {
+            log.flush();
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(log == null ? -1 : log.size());
+            out.writeLong(service.getUnknownFixes());
+            out.writeLong(service.getStaleFixes());
+            out.writeBoolean(service.isIncremental());
+            out.writeDouble(service.getTolerance());
+            writeString(out, zoo.getTitle());
+
+            Collection<Tracked> entities = entities(zoo);
+            out.writeInt(entities.size());
+            for (Tracked tracked : entities) {
+                writeEntity(out, tracked);
+            }
+            for (Tracked tracked : entities) {
+                writeRelations(out, tracked);
+            }
+
+            writeIds(out, service.getTrackable());
+            writeIds(out, zoo.getEmployees());
+            writeIds(out, zoo.getAnimals());
+
+            EmployeeActionJournal actions = service.getEmployeeActionJournal();
+            out.writeInt(actions.size());
+            for (int i = 0; i < actions.size(); i++) {
+                out.writeInt(actions.employee(i).getSensorId());
+                out.writeLong(actions.time(i));
+                out.writeByte(actions.type(i).ordinal());
+            }
+            writeInteractions(out, service.getInteractions());
+            writeInteractions(out, service.getEmployeeInteractions());
+            writeInteractions(out, service.getCurrentInteractions());
+            out.writeInt(service.getIllegalActions().size());
+            for (IllegalAction action : service.getIllegalActions()) {
+                out.writeInt(action.getEmployee().getSensorId());
+                out.writeInt(action.getAnimal().getSensorId());
+                writeDate(out, action.getBegin());
+                writeDate(out, action.getDate());
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Все объекты, на которые ссылается состояние: отслеживаемые в порядке
+     * добавления, затем сотрудники и животные зоопарка и объекты из связей и журналов
+     * @param zoo зоопарк
+     * @return объекты
+     */
+    private static Collection<Tracked> entities(Zoo zoo) {
+        TrackingService service = zoo.getTrackingService();
+        Map<Integer, Tracked> entities = new LinkedHashMap<>();
+        Deque<Tracked> queue = new ArrayDeque<>();
+        queue.addAll(service.getTrackable());
+        queue.addAll(zoo.getEmployees());
+        queue.addAll(zoo.getAnimals());
+        for (List<Interaction> journal : Arrays.asList(service.getInteractions(),
+                service.getEmployeeInteractions(),
+                new ArrayList<>(service.getCurrentInteractions()))) {
+            for (Interaction interaction : journal) {
+                queue.add(interaction.trackedA());
+                queue.add(interaction.trackedB());
+            }
+        }
+        for (IllegalAction action : service.getIllegalActions()) {
+            queue.add(action.getEmployee());
+            queue.add(action.getAnimal());
+        }
+        EmployeeActionJournal actions = service.getEmployeeActionJournal();
+        for (int i = 0; i < actions.size(); i++) {
+            queue.add(actions.employee(i));
+        }
+        while (!queue.isEmpty()) {
+            Tracked tracked = queue.poll();
+            if (entities.putIfAbsent(tracked.getSensorId(), tracked) != null) {
+                continue;
+            }
+            if (tracked instanceof Employee) {
+                queue.addAll(((Employee) tracked).getAnimals());
+                for (WardInteraction interaction : ((Employee) tracked).getWardInteractions()) {
+                    queue.add(interaction.getAnimal());
+                }
+            } else {
+                queue.addAll(((Animal) tracked).getEmployees());
+            }
+        }
+        return entities.values();
+    }
+    private static void writeEntity(DataOutputStream out, Tracked tracked) throws IOException {
+        boolean employee = tracked instanceof Employee;
+        out.writeByte(employee ? EMPLOYEE : ANIMAL);
+        out.writeInt(tracked.getSensorId());
+        writeString(out, employee ? ((Employee) tracked).getName() : ((Animal) tracked).getName());
+        writeDate(out, employee ? ((Employee) tracked).getDateOfBirth()
+                : ((Animal) tracked).getDateOfBirth());
+        PositionRow row = tracked.getRow();
+        out.writeDouble(row.x());
+        out.writeDouble(row.y());
+        out.writeLong(row.time());
+
+        MovementJournal journal = tracked.getMovementJournal();
+        int sealedSize = journal.getSealedSize();
+        out.writeInt(sealedSize);
+        for (int chunk = 0, written = 0; written < sealedSize; chunk++) {
+            SealedBlock block = journal.sealedBlock(chunk);
+            block.write(out);
+            written += block.size();
+        }
+        out.writeInt(journal.size() - sealedSize);
+        MovementJournal.Cursor cursor = journal.cursor(sealedSize);
+        while (cursor.next()) {
+            out.writeDouble(cursor.x());
+            out.writeDouble(cursor.y());
+            out.writeLong(cursor.time());
+        }
+    }
+    private static void writeRelations(DataOutputStream out, Tracked tracked) throws IOException {
+        if (tracked instanceof Animal) {
+            Animal animal = (Animal) tracked;
+            writeIds(out, animal.getEmployees());
+            out.writeInt(animal.getDiseaseDiary().size());
+            for (DiseaseNote note : animal.getDiseaseDiary()) {
+                writeString(out, note.getDisease());
+                writeDate(out, note.getTime());
+                writeString(out, note.getComment());
+            }
+            return;
+        }
+        Employee employee = (Employee) tracked;
+        writeIds(out, employee.getAnimals());
+        out.writeInt(employee.getShifts().size());
+        for (Shift shift : employee.getShifts()) {
+            writeDate(out, shift.getBegin());
+            writeDate(out, shift.getEnd());
+        }
+        out.writeInt(employee.getWardInteractions().size());
+        for (WardInteraction interaction : employee.getWardInteractions()) {
+            out.writeInt(interaction.getAnimal().getSensorId());
+            writeDate(out, interaction.getBegin());
+            writeDate(out, interaction.getEnd());
+        }
+    }
+    private static void writeInteractions(DataOutputStream out,
+                                          Collection<Interaction> interactions) throws IOException {
+        out.writeInt(interactions.size());
+        for (Interaction interaction : interactions) {
+            out.writeInt(interaction.trackedA().getSensorId());
+            out.writeInt(interaction.trackedB().getSensorId());
+            writeDate(out, interaction.getBegin());
+            writeDate(out, interaction.getEnd());
+        }
+    }
+    private static void writeIds(DataOutputStream out,
+                                 Collection<? extends Tracked> tracked) throws IOException {
+        out.writeInt(tracked.size());
+        for (Tracked temp : tracked) {
+            out.writeInt(temp.getSensorId());
+        }
+    }
+    private static void writeDate(DataOutputStream out, Date date) throws IOException {
+        out.writeLong(date == null ? NO_DATE : date.getTime());
+    }
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+    //=====================================//
+
+
+    //=========== Восстановление ===========//
+    /**
+     * Восстановление зоопарка из снимка без журнала событий
+     * @param file файл снимка
+     * @return зоопарк с сервисом отслеживания
+     * @throws IOException если чтение не удалось или файл не является снимком
+     */
+    public static Zoo restore(Path file) throws IOException {
+        return restore(file, null);
+    }
+    /**
+     * Восстановление зоопарка из снимка и применение записей журнала,
+     * сделанных после снимка. Журнал подключается к восстановленному сервису.
+     * @param file файл снимка
+     * @param log журнал событий или {@code null}
+     * @return зоопарк с сервисом отслеживания
+     * @throws IOException если чтение не удалось или файл не является снимком
+     * @throws IllegalStateException если в журнале меньше записей, чем на момент снимка
+     */
+    public static Zoo restore(Path file, EventLog log) throws IOException {
+        TrackingService service = new TrackingService();
+        Zoo zoo;
+        long position;
+        boolean incremental;
+        double tolerance;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(file + " is not a snapshot");
+            }
+            position = in.readLong();
+            service.restoreCounters(in.readLong(), in.readLong());
+            incremental = in.readBoolean();
+            tolerance = in.readDouble();
+            zoo = new Zoo(readString(in));
+            zoo.set(service);
+
+            Map<Integer, Tracked> entities = new LinkedHashMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Tracked tracked = readEntity(in);
+                entities.put(tracked.getSensorId(), tracked);
+            }
+            for (Tracked tracked : entities.values()) {
+                readRelations(in, tracked, entities);
+            }
+
+            for (Tracked tracked : readIds(in, entities)) {
+                service.add(tracked);
+            }
+            for (Tracked tracked : readIds(in, entities)) {
+                zoo.getEmployees().add((Employee) tracked);
+            }
+            for (Tracked tracked : readIds(in, entities)) {
+                zoo.getAnimals().add((Animal) tracked);
+            }
+
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                service.restoreEmployeeAction(entities.get(in.readInt()), in.readLong(),
+                        EmployeeAction.Type.values()[in.readByte()]);
+            }
+            service.getInteractions().addAll(readInteractions(in, entities));
+            service.getEmployeeInteractions().addAll(readInteractions(in, entities));
+            for (Interaction interaction : readInteractions(in, entities)) {
+                service.openInteraction(interaction);
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Tracked employee = entities.get(in.readInt());
+                Tracked animal = entities.get(in.readInt());
+                Date begin = readDate(in);
+                Date date = readDate(in);
+                /* Нарушение по текущему контакту ссылается на него, чтобы не повториться */
+                Interaction interaction = service.getCurrentInteraction(employee, animal);
+                if (interaction == null || !interaction.getBegin().equals(begin)) {
+                    interaction = new Interaction(employee, animal, begin);
+                }
+                service.addIllegalAction(interaction, new IllegalAction(interaction, date));
+            }
+        }
+
+        service.setIncremental(incremental);
+        service.setTolerance(tolerance);
+        if (log != null) {
+            if (position > log.size()) {
+                throw new IllegalStateException("Event log has " + log.size() +
+                        " records, snapshot was taken at " + position);
+            }
+            service.replay(log.cursor(Math.max(position, 0)));
+            service.setEventLog(log);
+        }
+        return zoo;
+    }
+    private static Tracked readEntity(DataInputStream in) throws IOException {
+        byte kind = in.readByte();
+        int sensorId = in.readInt();
+        String name = readString(in);
+        Date dateOfBirth = readDate(in);
+        Tracked tracked = kind == EMPLOYEE
+                ? new Employee(name, dateOfBirth, sensorId)
+                : new Animal(name, dateOfBirth, sensorId);
+        MovementJournal journal = tracked.getMovementJournal();
+        tracked.getRow().set(in.readDouble(), in.readDouble(), in.readLong());
+
+        int sealedSize = in.readInt();
+        for (int read = 0; read < sealedSize; ) {
+            SealedBlock block = SealedBlock.read(in);
+            journal.appendSealed(block);
+            read += block.size();
+        }
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            journal.append(in.readDouble(), in.readDouble(), in.readLong());
+        }
+        return tracked;
+    }
+    private static void readRelations(DataInputStream in, Tracked tracked,
+                                      Map<Integer, Tracked> entities) throws IOException {
+        if (tracked instanceof Animal) {
+            Animal animal = (Animal) tracked;
+            for (Tracked employee : readIds(in, entities)) {
+                animal.add((Employee) employee);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                animal.add(new DiseaseNote(readString(in), readDate(in), readString(in)));
+            }
+            return;
+        }
+        Employee employee = (Employee) tracked;
+        for (Tracked animal : readIds(in, entities)) {
+            employee.add((Animal) animal);
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Shift shift = new Shift(readDate(in));
+            shift.setEnd(readDate(in));
+            employee.getShifts().add(shift);
+        }
+        count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            employee.add(new WardInteraction((Animal) entities.get(in.readInt()),
+                    readDate(in), readDate(in)));
+        }
+    }
+    private static List<Interaction> readInteractions(DataInputStream in,
+                                                      Map<Integer, Tracked> entities) throws IOException {
+        int count = in.readInt();
+        List<Interaction> interactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Interaction interaction = new Interaction(entities.get(in.readInt()),
+                    entities.get(in.readInt()), readDate(in));
+            interaction.setEnd(readDate(in));
+            interactions.add(interaction);
+        }
+        return interactions;
+    }
+    private static List<Tracked> readIds(DataInputStream in,
+                                         Map<Integer, Tracked> entities) throws IOException {
+        int count = in.readInt();
+        List<Tracked> tracked = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tracked.add(entities.get(in.readInt()));
+        }
+        return tracked;
+    }
+    private static Date readDate(DataInputStream in) throws IOException {
+        long time = in.readLong();
+        return time == NO_DATE ? null : new Date(time);
+    }
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    //======================================//
+}
@@ -0,0 +1,563 @@
+package tracking;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пространственно-временной индекс журналов перемещений.
+ * Каждая точка журнала означает, что объект стоял в ней до следующей точки
+ * (стоянка). Закрытые стоянки раскладываются по ячейкам: время делится на
+ * отрезки фиксированной длины, плоскость - на квадраты; стоянка попадает
+ * в ячейку своего квадрата в каждом отрезке, который она пересекает.
+ * Две последние точки журнала - открытые стоянки: последняя точка ещё
+ * может замениться (см. {@link MovementJournal#setTolerance(double)}),
+ * поэтому конец предпоследней стоянки не известен. Открытые стоянки
+ * лежат в отдельном наборе квадратов и переносятся при изменении журнала.
+ * <p>
+ * Запрос просматривает только занятые ячейки, пересекающие область и
+ * промежуток времени запроса, поэтому время его работы зависит от
+ * количества найденного, а не от длины истории и размера плана.
+ * Поиск ближайших обходит квадраты кольцами от квадрата запроса и
+ * останавливается, когда найденные объекты ближе следующего кольца.
+ * Новые точки журналов добавляются в индекс при каждом запросе или
+ * вызове {@link #refresh()}: для объекта без новых точек это одно сравнение.
+ * <p>
+ * Индекс читает журналы, которые пополняет поток {@link TrackingService},
+ * и не синхронизирован: работать с ним можно только из потока, создавшего
+ * его, - это поток сервиса. Вызов из другого потока завершается
+ * {@link IllegalStateException}; запросы расследований передаются
+ * в поток сервиса.
+ */
+public class SpaceTimeIndex {
+
+    /** Длина отрезка времени по умолчанию, нс */
+    public static final long DEFAULT_SLICE = TimeUnit.MINUTES.toNanos(1);
+    /** Сторона квадрата по умолчанию */
+    public static final double DEFAULT_CELL = 10;
+    /** Наибольшее количество открытых стоянок объекта */
+    private static final int OPEN = 2;
+
+
+    /** Длина отрезка времени, нс */
+    private final long slice;
+    /** Сторона квадрата */
+    private final double cellSize;
+
+    /** Объекты индекса */
+    private final List<Tracked> entities;
+    /** Номера объектов */
+    private final Map<Tracked, Integer> numbers;
+    /** Количество закрытых стоянок каждого объекта, уже попавших в индекс */
+    private int[] indexed;
+    /** Ячейки закрытых стоянок: квадрат - отрезок времени - пары (объект, точка журнала) */
+    private final Map<Long, TreeMap<Long, IntList>> cells;
+    /** Квадраты открытых стоянок: пары (объект, точка журнала) */
+    private final Map<Long, IntList> open;
+    /* Границы всех когда-либо занятых квадратов */
+    private long minColumn = Long.MAX_VALUE;
+    private long maxColumn = Long.MIN_VALUE;
+    private long minRow = Long.MAX_VALUE;
+    private long maxRow = Long.MIN_VALUE;
+    /** Поток, которому принадлежит индекс */
+    private final Thread owner;
+
+    /* Журнал объекта при последнем обновлении: размер и последняя точка */
+    private int[] seenSizes;
+    private long[] seenTimes;
+    private double[] seenXs;
+    private double[] seenYs;
+    /* Открытые стоянки объекта: квадраты, точки журнала, количество */
+    private long[] openKeys;
+    private int[] openPoints;
+    private int[] openCounts;
+
+    /* Рабочие массивы запросов: лучшее расстояние до каждого объекта */
+    private double[] best;
+    private final IntList touched;
+    /** Очередь улучшенных расстояний при поиске ближайших; {@code null} вне поиска */
+    private PriorityQueue<double[]> ranking;
+    /** Объекты, уже попавшие в результат поиска ближайших */
+    private boolean[] settled;
+
+
+    /** Индекс с отрезками по минуте и квадратами 10 x 10 */
+    public SpaceTimeIndex() {
+        this(DEFAULT_SLICE, DEFAULT_CELL);
+    }
+    /**
+     * Индекс
+     * @param slice длина отрезка времени, нс
+     * @param cellSize сторона квадрата
+     */
+    public SpaceTimeIndex(long slice, double cellSize) {
+        if (slice <= 0 || cellSize <= 0) {
+            throw new IllegalArgumentException("slice=" + slice + ", cellSize=" + cellSize);
+        }
+        this.slice = slice;
+        this.cellSize = cellSize;
+        entities = new ArrayList<>();
+        numbers = new HashMap<>();
+        cells = new HashMap<>();
+        open = new HashMap<>();
+        touched = new IntList();
+        owner = Thread.currentThread();
+        allocate(16);
+    }
+
+
+    /**
+     * Добавление объектов в индекс
+     * @param tracked объекты
+     */
+    public void add(Tracked... tracked) {
+        checkThread();
+        for (Tracked temp : tracked) {
+            if (numbers.containsKey(temp)) {
+                continue;
+            }
+            int number = entities.size();
+            entities.add(temp);
+            numbers.put(temp, number);
+            if (number == indexed.length) {
+                allocate(number * 2);
+            }
+            best[number] = Double.POSITIVE_INFINITY;
+        }
+        refresh();
+    }
+    /**
+     * Добавление в индекс стоянок, закрытых новыми точками журналов,
+     * и перенос открытых стоянок
+     */
+    public void refresh() {
+        checkThread();
+        for (int number = 0; number < entities.size(); number++) {
+            MovementJournal journal = entities.get(number).getMovementJournal();
+            int size = journal.size();
+            if (size == 0) {
+                continue;
+            }
+            int last = size - 1;
+            if (size == seenSizes[number] && journal.time(last) == seenTimes[number] &&
+                    journal.x(last) == seenXs[number] && journal.y(last) == seenYs[number]) {
+                continue;
+            }
+            seenSizes[number] = size;
+            seenTimes[number] = journal.time(last);
+            seenXs[number] = journal.x(last);
+            seenYs[number] = journal.y(last);
+
+            removeOpen(number);
+            /* Стоянка закрыта, когда следующая за ней точка уже не заменится */
+            int closed = Math.max(size - OPEN, 0);
+            for (int i = indexed[number]; i < closed; i++) {
+                long key = key(journal.x(i), journal.y(i));
+                extend(key);
+                TreeMap<Long, IntList> cell = cells.computeIfAbsent(key, ignored -> new TreeMap<>());
+                long end = Math.floorDiv(journal.time(i + 1) - 1, slice);
+                for (long s = Math.floorDiv(journal.time(i), slice); s <= end; s++) {
+                    IntList items = cell.computeIfAbsent(s, ignored -> new IntList());
+                    items.add(number);
+                    items.add(i);
+                }
+            }
+            indexed[number] = Math.max(indexed[number], closed);
+            for (int i = indexed[number]; i < size; i++) {
+                long key = key(journal.x(i), journal.y(i));
+                extend(key);
+                IntList items = open.computeIfAbsent(key, ignored -> new IntList());
+                items.add(number);
+                items.add(i);
+                openKeys[number * OPEN + openCounts[number]] = key;
+                openPoints[number * OPEN + openCounts[number]] = i;
+                openCounts[number]++;
+            }
+        }
+    }
+
+
+    //=========== Запросы ===========//
+    /**
+     * Объекты, побывавшие в круге за промежуток времени
+     * @param x центр круга по OX
+     * @param y центр круга по OY
+     * @param radius радиус
+     * @param from начало промежутка, нс
+     * @param to конец промежутка (включительно), нс
+     * @return объекты в порядке добавления в индекс
+     */
+    public List<Tracked> range(double x, double y, double radius, long from, long to) {
+        refresh();
+        collect(x, y, radius, from, to);
+        return result(radius);
+    }
+    /**
+     * Ближайшие к точке объекты за промежуток времени:
+     * расстояние объекта - наименьшее за промежуток.
+     * Квадраты обходятся кольцами от квадрата точки, пока не найдено
+     * {@code k} объектов не дальше следующего кольца. Когда кольцо
+     * длиннее, чем занятых квадратов осталось, оставшиеся занятые
+     * квадраты обходятся по возрастанию расстояния до них
+     * @param x по OX
+     * @param y по OY
+     * @param k количество объектов
+     * @param from начало промежутка, нс
+     * @param to конец промежутка (включительно), нс
+     * @return не больше {@code k} объектов по возрастанию расстояния
+     */
+    public List<Tracked> nearest(double x, double y, int k, long from, long to) {
+        refresh();
+        ranking = new PriorityQueue<>(Comparator.comparingDouble((double[] entry) -> entry[0]));
+        IntList order = new IntList();
+        long column = cell(x);
+        long row = cell(y);
+        /* Дальше этого кольца занятых квадратов нет */
+        long reach = minColumn > maxColumn ? -1 : Math.max(
+                Math.max(column - minColumn, maxColumn - column),
+                Math.max(row - minRow, maxRow - row));
+        for (long ring = 0; ring <= reach && order.size() < k; ring++) {
+            /* Объекты не дальше кольца уже не приблизятся */
+            settle(ring(x, y, column, row, ring), order);
+            if (order.size() >= k) {
+                break;
+            }
+            if (8 * ring > cells.size() + open.size()) {
+                farther(x, y, column, row, ring, k, order, from, to);
+                break;
+            }
+            if (ring == 0) {
+                visit(SpatialGrid.key((int) column, (int) row), x, y, from, to);
+                continue;
+            }
+            for (long i = -ring; i < ring; i++) {
+                visit(SpatialGrid.key((int) (column + i), (int) (row - ring)), x, y, from, to);
+                visit(SpatialGrid.key((int) (column + ring), (int) (row + i)), x, y, from, to);
+                visit(SpatialGrid.key((int) (column - i), (int) (row + ring)), x, y, from, to);
+                visit(SpatialGrid.key((int) (column - ring), (int) (row - i)), x, y, from, to);
+            }
+        }
+        settle(Double.POSITIVE_INFINITY, order);
+        ranking = null;
+
+        List<Integer> sorted = new ArrayList<>(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            sorted.add(order.get(i));
+            settled[order.get(i)] = false;
+        }
+        sorted.sort(Comparator.comparingDouble((Integer number) -> best[number])
+                .thenComparingInt(number -> number));
+        List<Tracked> nearest = new ArrayList<>(Math.min(k, sorted.size()));
+        for (int i = 0; i < sorted.size() && i < k; i++) {
+            nearest.add(entities.get(sorted.get(i)));
+        }
+        reset();
+        return nearest;
+    }
+    /**
+     * Объекты, находившиеся ближе {@code radius} к объекту в одно
+     * и то же время в пределах промежутка
+     * @param target объект
+     * @param radius расстояние
+     * @param from начало промежутка, нс
+     * @param to конец промежутка (включительно), нс
+     * @return объекты в порядке добавления в индекс, кроме самого {@code target}
+     */
+    public List<Tracked> near(Tracked target, double radius, long from, long to) {
+        refresh();
+        MovementJournal journal = target.getMovementJournal();
+        int first = Math.max(journal.indexAt(from), 0);
+        int last = journal.indexAt(to);
+        for (int i = first; i <= last; i++) {
+            /* Стоянка объекта, обрезанная по промежутку запроса */
+            long begin = Math.max(journal.time(i), from);
+            long end = i + 1 < journal.size() ? Math.min(journal.time(i + 1) - 1, to) : to;
+            if (begin <= end) {
+                collect(journal.x(i), journal.y(i), radius, begin, end);
+            }
+        }
+        Integer self = numbers.get(target);
+        if (self != null) {
+            best[self] = Double.POSITIVE_INFINITY;
+        }
+        return result(radius);
+    }
+    //===============================//
+
+
+    /**
+     * Поиск стоянок в круге, пересекающих промежуток: для каждого найденного
+     * объекта запоминается наименьшее расстояние
+     */
+    private void collect(double x, double y, double radius, long from, long to) {
+        double squared = radius * radius;
+        long minColumn = cell(x - radius);
+        long maxColumn = cell(x + radius);
+        long minRow = cell(y - radius);
+        long maxRow = cell(y + radius);
+        /* Перебираются либо квадраты прямоугольника, либо занятые квадраты - чего меньше */
+        if ((maxColumn - minColumn + 1) * (maxRow - minRow + 1) > cells.size() + open.size()) {
+            for (Map.Entry<Long, TreeMap<Long, IntList>> cell : cells.entrySet()) {
+                if (inside(cell.getKey(), minColumn, maxColumn, minRow, maxRow)) {
+                    visit(cell.getValue(), x, y, squared, from, to);
+                }
+            }
+            for (Map.Entry<Long, IntList> cell : open.entrySet()) {
+                if (inside(cell.getKey(), minColumn, maxColumn, minRow, maxRow)) {
+                    visit(cell.getValue(), true, x, y, squared, from, to);
+                }
+            }
+            return;
+        }
+        for (long column = minColumn; column <= maxColumn; column++) {
+            for (long row = minRow; row <= maxRow; row++) {
+                long key = SpatialGrid.key((int) column, (int) row);
+                TreeMap<Long, IntList> closed = cells.get(key);
+                if (closed != null) {
+                    visit(closed, x, y, squared, from, to);
+                }
+                IntList items = open.get(key);
+                if (items != null) {
+                    visit(items, true, x, y, squared, from, to);
+                }
+            }
+        }
+    }
+    /**
+     * Дообход поиска ближайших: занятые квадраты не ближе кольца {@code ring}
+     * по возрастанию расстояния до них
+     */
+    private void farther(double x, double y, long column, long row, long ring, int k,
+                         IntList order, long from, long to) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (long key : cells.keySet()) {
+            if (!inside(key, column - ring + 1, column + ring - 1, row - ring + 1, row + ring - 1)) {
+                candidates.add(new Candidate(distance(x, y, key), key));
+            }
+        }
+        for (long key : open.keySet()) {
+            if (!cells.containsKey(key) &&
+                    !inside(key, column - ring + 1, column + ring - 1, row - ring + 1, row + ring - 1)) {
+                candidates.add(new Candidate(distance(x, y, key), key));
+            }
+        }
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(candidates);
+        while (!queue.isEmpty()) {
+            Candidate candidate = queue.poll();
+            settle(candidate.distance, order);
+            if (order.size() >= k) {
+                return;
+            }
+            visit(candidate.key, x, y, from, to);
+        }
+    }
+    /** Проверка закрытых и открытых стоянок квадрата без ограничения расстояния */
+    private void visit(long key, double x, double y, long from, long to) {
+        TreeMap<Long, IntList> closed = cells.get(key);
+        if (closed != null) {
+            visit(closed, x, y, Double.POSITIVE_INFINITY, from, to);
+        }
+        IntList items = open.get(key);
+        if (items != null) {
+            visit(items, true, x, y, Double.POSITIVE_INFINITY, from, to);
+        }
+    }
+    /** Проверка закрытых стоянок квадрата в отрезках времени промежутка */
+    private void visit(TreeMap<Long, IntList> closed, double x, double y, double squared,
+                       long from, long to) {
+        for (IntList items : closed.subMap(
+                Math.floorDiv(from, slice), true, Math.floorDiv(to, slice), true).values()) {
+            visit(items, false, x, y, squared, from, to);
+        }
+    }
+    /**
+     * Проверка стоянок одного квадрата
+     * @param items пары (объект, точка журнала)
+     * @param open {@code true} для открытых стоянок
+     */
+    private void visit(IntList items, boolean open, double x, double y, double squared,
+                       long from, long to) {
+        for (int j = 0; j < items.size(); j += 2) {
+            int number = items.get(j);
+            MovementJournal journal = entities.get(number).getMovementJournal();
+            int point = items.get(j + 1);
+            /* Стоянка [time(point), time(point + 1)) должна пересекать промежуток;
+               у последней точки журнала конца нет */
+            if (journal.time(point) > to) {
+                continue;
+            }
+            if ((!open || point + 1 < journal.size()) && journal.time(point + 1) <= from) {
+                continue;
+            }
+            offer(number, journal.x(point), journal.y(point), x, y, squared);
+        }
+    }
+    private void offer(int number, double px, double py, double x, double y, double squared) {
+        double dx = px - x;
+        double dy = py - y;
+        double distance = dx * dx + dy * dy;
+        if (distance > squared) {
+            return;
+        }
+        if (best[number] == Double.POSITIVE_INFINITY) {
+            touched.add(number);
+        }
+        double root = Math.sqrt(distance);
+        if (root < best[number]) {
+            best[number] = root;
+            if (ranking != null) {
+                ranking.add(new double[] {root, number});
+            }
+        }
+    }
+    /**
+     * Перенос в результат поиска ближайших объектов не дальше {@code distance}
+     * @param distance расстояние
+     * @param order результат
+     */
+    private void settle(double distance, IntList order) {
+        while (!ranking.isEmpty() && ranking.peek()[0] <= distance) {
+            int number = (int) ranking.poll()[1];
+            if (!settled[number]) {
+                settled[number] = true;
+                order.add(number);
+            }
+        }
+    }
+    /**
+     * Найденные объекты и сброс рабочих массивов
+     * @param radius расстояние поиска
+     * @return объекты в порядке добавления в индекс
+     */
+    private List<Tracked> result(double radius) {
+        int[] found = new int[touched.size()];
+        int count = 0;
+        for (int i = 0; i < touched.size(); i++) {
+            int number = touched.get(i);
+            if (best[number] <= radius) {
+                found[count++] = number;
+            }
+        }
+        reset();
+        Arrays.sort(found, 0, count);
+        List<Tracked> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(entities.get(found[i]));
+        }
+        return result;
+    }
+    private void reset() {
+        for (int i = 0; i < touched.size(); i++) {
+            best[touched.get(i)] = Double.POSITIVE_INFINITY;
+        }
+        touched.clear();
+    }
+    /** Удаление открытых стоянок объекта из их квадратов */
+    private void removeOpen(int number) {
+        for (int i = 0; i < openCounts[number]; i++) {
+            long key = openKeys[number * OPEN + i];
+            int point = openPoints[number * OPEN + i];
+            IntList items = open.get(key);
+            for (int j = 0; j < items.size(); j += 2) {
+                if (items.get(j) == number && items.get(j + 1) == point) {
+                    items.removeAt(j + 1);
+                    items.removeAt(j);
+                    break;
+                }
+            }
+            if (items.size() == 0) {
+                open.remove(key);
+            }
+        }
+        openCounts[number] = 0;
+    }
+    private void extend(long key) {
+        long column = key >> 32;
+        long row = (int) key;
+        minColumn = Math.min(minColumn, column);
+        maxColumn = Math.max(maxColumn, column);
+        minRow = Math.min(minRow, row);
+        maxRow = Math.max(maxRow, row);
+    }
+    private void checkThread() {
+        if (Thread.currentThread() != owner) {
+            throw new IllegalStateException("SpaceTimeIndex belongs to thread " + owner.getName() +
+                    ", called from " + Thread.currentThread().getName());
+        }
+    }
+    private void allocate(int capacity) {
+        int old = indexed == null ? 0 : indexed.length;
+        indexed = indexed == null ? new int[capacity] : Arrays.copyOf(indexed, capacity);
+        best = best == null ? new double[capacity] : Arrays.copyOf(best, capacity);
+        settled = settled == null ? new boolean[capacity] : Arrays.copyOf(settled, capacity);
+        seenSizes = seenSizes == null ? new int[capacity] : Arrays.copyOf(seenSizes, capacity);
+        seenTimes = seenTimes == null ? new long[capacity] : Arrays.copyOf(seenTimes, capacity);
+        seenXs = seenXs == null ? new double[capacity] : Arrays.copyOf(seenXs, capacity);
+        seenYs = seenYs == null ? new double[capacity] : Arrays.copyOf(seenYs, capacity);
+        openKeys = openKeys == null ? new long[capacity * OPEN] : Arrays.copyOf(openKeys, capacity * OPEN);
+        openPoints = openPoints == null ? new int[capacity * OPEN] : Arrays.copyOf(openPoints, capacity * OPEN);
+        openCounts = openCounts == null ? new int[capacity] : Arrays.copyOf(openCounts, capacity);
+        Arrays.fill(best, old, capacity, Double.POSITIVE_INFINITY);
+    }
+    /**
+     * Расстояние от точки до квадрата
+     * @param x по OX
+     * @param y по OY
+     * @param key ключ квадрата
+     * @return 0, если точка внутри квадрата
+     */
+    private double distance(double x, double y, long key) {
+        double minX = (key >> 32) * cellSize;
+        double minY = (int) key * cellSize;
+        double dx = Math.max(0, Math.max(minX - x, x - (minX + cellSize)));
+        double dy = Math.max(0, Math.max(minY - y, y - (minY + cellSize)));
+        return Math.hypot(dx, dy);
+    }
+    /**
+     * Расстояние от точки до кольца квадратов
+     * @param column столбец квадрата точки
+     * @param row строка квадрата точки
+     * @param ring номер кольца; 0 - сам квадрат точки
+     * @return наименьшее расстояние до квадратов кольца
+     */
+    private double ring(double x, double y, long column, long row, long ring) {
+        if (ring == 0) {
+            return 0;
+        }
+        double left = x - (column - ring + 1) * cellSize;
+        double right = (column + ring) * cellSize - x;
+        double bottom = y - (row - ring + 1) * cellSize;
+        double top = (row + ring) * cellSize - y;
+        return Math.min(Math.min(left, right), Math.min(bottom, top));
+    }
+    private static boolean inside(long key, long minColumn, long maxColumn, long minRow, long maxRow) {
+        long column = key >> 32;
+        long row = (int) key;
+        return column >= minColumn && column <= maxColumn && row >= minRow && row <= maxRow;
+    }
+    private long key(double x, double y) {
+        return SpatialGrid.key((int) cell(x), (int) cell(y));
+    }
+    private long cell(double coordinate) {
+        return (long) Math.floor(coordinate / cellSize);
+    }
+
+
+    /** Занятый квадрат в очереди поиска ближайших */
+    private static class Candidate implements Comparable<Candidate> {
+
+        /** Расстояние от точки запроса до квадрата */
+        private final double distance;
+        /** Ключ квадрата */
+        private final long key;
+
+        Candidate(double distance, long key) {
+            this.distance = distance;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return Double.compare(distance, other.distance);
+        }
+    }
+}
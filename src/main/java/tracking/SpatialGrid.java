@@ -0,0 +1,267 @@
+package tracking;
+
+import java.util.Arrays;
+
+/**
+ * Равномерная сетка для поиска соседей.
+ * Сторона ячейки равна расстоянию контакта, поэтому все объекты,
+ * с которыми возможен контакт, лежат в той же или в соседних ячейках.
+ * Объекты задаются номерами строк {@link PositionTable}, ячейки хранятся
+ * в хеш-таблице с открытой адресацией, поэтому поиск не создаёт объектов.
+ */
+class SpatialGrid {
+
+    /** Свободное место в хеш-таблице и отсутствие ячейки */
+    private static final int NONE = -1;
+
+    /** Сторона ячейки */
+    private final double cellSize;
+    /** Таблица местоположений */
+    private final PositionTable table;
+
+    /** Хеш-таблица: упакованные координаты ячейки */
+    private long[] keys;
+    /** Хеш-таблица: номер ячейки или {@link #NONE} */
+    private int[] slots;
+    /** Объекты в каждой ячейке */
+    private int[][] items;
+    /** Количество объектов в каждой ячейке */
+    private int[] counts;
+    /** Упакованные координаты каждой ячейки */
+    private long[] cellKeys;
+    /** Количество ячеек, включая опустевшие */
+    private int cells;
+
+    /** Ячейка каждого объекта */
+    private int[] cellOf;
+    /** Место объекта внутри его ячейки */
+    private int[] indexOf;
+    /** Количество объектов в сетке */
+    private int placed;
+
+
+    /**
+     * Сетка
+     * @param cellSize сторона ячейки
+     * @param table таблица местоположений
+     */
+    SpatialGrid(double cellSize, PositionTable table) {
+        this.cellSize = cellSize;
+        this.table = table;
+        cellOf = new int[16];
+        indexOf = new int[16];
+        Arrays.fill(cellOf, NONE);
+        reset(64);
+    }
+
+
+    /**
+     * Перенос объекта в ячейку, соответствующую его текущему местоположению
+     * @param handle номер строки объекта
+     */
+    void update(int handle) {
+        if (handle >= cellOf.length) {
+            int length = Math.max(handle + 1, cellOf.length * 2);
+            int old = cellOf.length;
+            cellOf = Arrays.copyOf(cellOf, length);
+            indexOf = Arrays.copyOf(indexOf, length);
+            Arrays.fill(cellOf, old, length, NONE);
+        }
+        long key = key(cell(table.x(handle)), cell(table.y(handle)));
+        int slot = cellOf[handle];
+        if (slot != NONE && cellKeys[slot] == key) {
+            return;
+        }
+        if (slot != NONE) {
+            removeFromCell(handle);
+        }
+        addToCell(handle, findOrCreate(key));
+    }
+    /**
+     * Удаление объекта из сетки
+     * @param handle номер строки объекта
+     */
+    void remove(int handle) {
+        if (handle < cellOf.length && cellOf[handle] != NONE) {
+            removeFromCell(handle);
+        }
+    }
+
+
+    /**
+     * Номер ячейки по одной из осей
+     * @param coordinate координата
+     * @return номер ячейки
+     */
+    int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+    /**
+     * Поиск ячейки
+     * @param column номер по OX
+     * @param row номер по OY
+     * @return номер ячейки или -1, если такой ячейки нет
+     */
+    int find(int column, int row) {
+        long key = key(column, row);
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; slots[i] != NONE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return slots[i];
+            }
+        }
+        return NONE;
+    }
+    /**
+     * Количество объектов в ячейке
+     * @param cell номер ячейки
+     * @return количество
+     */
+    int count(int cell) {
+        return counts[cell];
+    }
+    /**
+     * Объект в ячейке
+     * @param cell номер ячейки
+     * @param index место внутри ячейки
+     * @return номер строки объекта
+     */
+    int item(int cell, int index) {
+        return items[cell][index];
+    }
+
+
+    /**
+     * Номер ячейки с данными координатами; ячейка создаётся при необходимости
+     * @param key упакованные координаты
+     * @return номер ячейки
+     */
+    private int findOrCreate(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; slots[i] != NONE; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return slots[i];
+            }
+        }
+        /* Опустевшие ячейки не удаляются по одной, а выбрасываются все сразу */
+        if (cells > 2 * placed + 64) {
+            compact();
+            return findOrCreate(key);
+        }
+        if ((cells + 1) * 2 > keys.length) {
+            grow();
+            return findOrCreate(key);
+        }
+        if (cells == counts.length) {
+            int length = cells * 2;
+            items = Arrays.copyOf(items, length);
+            counts = Arrays.copyOf(counts, length);
+            cellKeys = Arrays.copyOf(cellKeys, length);
+        }
+        keys[i] = key;
+        slots[i] = cells;
+        items[cells] = new int[4];
+        counts[cells] = 0;
+        cellKeys[cells] = key;
+        return cells++;
+    }
+    /**
+     * Добавление объекта в ячейку
+     * @param handle номер строки объекта
+     * @param cell номер ячейки
+     */
+    private void addToCell(int handle, int cell) {
+        if (counts[cell] == items[cell].length) {
+            items[cell] = Arrays.copyOf(items[cell], counts[cell] * 2);
+        }
+        indexOf[handle] = counts[cell];
+        items[cell][counts[cell]++] = handle;
+        cellOf[handle] = cell;
+        placed++;
+    }
+    /**
+     * Удаление объекта из его ячейки: на его место переносится последний объект ячейки
+     * @param handle номер строки объекта
+     */
+    private void removeFromCell(int handle) {
+        int cell = cellOf[handle];
+        int index = indexOf[handle];
+        int last = items[cell][--counts[cell]];
+        items[cell][index] = last;
+        indexOf[last] = index;
+        cellOf[handle] = NONE;
+        placed--;
+    }
+    /** Пересборка хеш-таблицы без опустевших ячеек */
+    private void compact() {
+        int[][] oldItems = items;
+        int[] oldCounts = counts;
+        long[] oldKeys = cellKeys;
+        int oldCells = cells;
+        reset(Math.max(64, Integer.highestOneBit(Math.max(1, placed)) * 4));
+        placed = 0;
+        for (int cell = 0; cell < oldCells; cell++) {
+            if (oldCounts[cell] == 0) {
+                continue;
+            }
+            int slot = findOrCreate(oldKeys[cell]);
+            for (int i = 0; i < oldCounts[cell]; i++) {
+                addToCell(oldItems[cell][i], slot);
+            }
+        }
+    }
+    /** Увеличение хеш-таблицы */
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldSlots = slots;
+        keys = new long[oldKeys.length * 2];
+        slots = new int[oldKeys.length * 2];
+        Arrays.fill(slots, NONE);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldSlots[j] == NONE) {
+                continue;
+            }
+            int i = hash(oldKeys[j]) & mask;
+            while (slots[i] != NONE) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            slots[i] = oldSlots[j];
+        }
+    }
+    /**
+     * Очистка ячеек
+     * @param capacity размер хеш-таблицы (степень двойки)
+     */
+    private void reset(int capacity) {
+        keys = new long[capacity];
+        slots = new int[capacity];
+        Arrays.fill(slots, NONE);
+        items = new int[capacity / 2][];
+        counts = new int[capacity / 2];
+        cellKeys = new long[capacity / 2];
+        cells = 0;
+    }
+
+
+    /**
+     * Упаковка номеров ячейки в один ключ
+     * @param column номер по OX
+     * @param row номер по OY
+     * @return ключ
+     */
+    static long key(int column, int row) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    }
+    /**
+     * Перемешивание битов ключа
+     * @param key ключ
+     * @return хеш
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
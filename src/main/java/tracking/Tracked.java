@@ -3,19 +3,57 @@ package tracking;
 /** Отслеживаемый объект */
 public interface Tracked {
 
-    double x = 0;
-    double y = 0;
-
     /**
      * Уникальный индекс отслеживания
      * @return id
      */
     String getId();
 
+    /**
+     * Числовой идентификатор датчика, уникальный среди всех объектов
+     * @return id датчика
+     */
+    int getSensorId();
+
+    /**
+     * Местоположение объекта: до добавления в {@link TrackingService}
+     * хранится в самом объекте, после - в таблице сервиса
+     * @return строка местоположения
+     */
+    PositionRow getRow();
+
+    /**
+     * Текущее местоположение по OX
+     * @return x
+     */
+    double getX();
+
+    /**
+     * Текущее местоположение по OY
+     * @return y
+     */
+    double getY();
+
+    /**
+     * Журнал перемещений с временем измерений
+     * @return журнал
+     */
+    MovementJournal getMovementJournal();
+
     /**
      * Передача текущего местоположения в теукщий момент времени
      * @param x по OX
      * @param y по OY
      */
-    void updatePosition(double x, double y);
+    default void updatePosition(double x, double y) {
+        updatePosition(x, y, EventTime.now());
+    }
+
+    /**
+     * Передача местоположения, измеренного датчиком в момент {@code time}
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс от начала эпохи
+     */
+    void updatePosition(double x, double y, long time);
 }
@@ -0,0 +1,64 @@
+package tracking;
+
+import zoo.IllegalAction;
+import zoo.employee.Employee;
+
+import java.util.Date;
+
+/**
+ * Подписчик на события {@link TrackingService}.
+ * События доставляются пакетами в потоке, обновляющем местоположения,
+ * не позже конца такта, на котором они произошли. Все методы по умолчанию
+ * ничего не делают, поэтому достаточно переопределить нужные.
+ */
+public interface TrackingListener {
+
+    /**
+     * Начался контакт
+     * @param interaction взаимодействие
+     */
+    default void contactOpened(Interaction interaction) {
+    }
+    /**
+     * Контакт завершился
+     * @param interaction взаимодействие с установленным концом
+     */
+    default void contactClosed(Interaction interaction) {
+    }
+    /**
+     * Сотрудник вошёл в зоопарк
+     * @param employee сотрудник
+     * @param begin начало смены
+     */
+    default void shiftBegin(Employee employee, Date begin) {
+    }
+    /**
+     * Сотрудник вышел из зоопарка
+     * @param employee сотрудник
+     * @param end конец смены
+     */
+    default void shiftEnd(Employee employee, Date end) {
+    }
+    /**
+     * Зафиксировано незаконное действие
+     * @param illegalAction нарушение
+     */
+    default void illegalAction(IllegalAction illegalAction) {
+    }
+    /**
+     * Объект вошёл в зону
+     * @param tracked объект
+     * @param zone зона
+     * @param time время измерения
+     */
+    default void zoneEntered(Tracked tracked, Zone zone, Date time) {
+    }
+    /**
+     * Объект вышел из зоны
+     * @param tracked объект
+     * @param zone зона
+     * @param time время измерения
+     */
+    default void zoneExited(Tracked tracked, Zone zone, Date time) {
+    }
+}
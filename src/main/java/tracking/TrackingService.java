@@ -8,6 +8,8 @@ import zoo.employee.Employee;
 import zoo.employee.WardInteraction;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Сервис отслеживания {@link Tracked}
@@ -17,114 +19,301 @@ public class TrackingService {
 
     /** размер стороны зоны */
     private static final double zone = Zoo.size;
+    /** расстояние контакта */
+    public static final double CONTACT_DISTANCE = 3;
+    /** Наибольшее количество событий, рассылаемых подписчикам одним пакетом */
+    private static final int DISPATCH_BATCH = 256;
 
 
-    /** Множество отслеживаемых объектов */
+    /** Множество отслеживаемых объектов в порядке добавления */
     private Set<Tracked> trackable;
     /** Журнал приходов и уходов сотрудников */
-    private List<String> employeeActions;
-    /** Список текущих взаимодействий между сотрудниками и животными */
-    private Set<Interaction> currentInteractions;
+    private final EmployeeActionJournal employeeActions;
+    /** Текущие взаимодействия по ключу пары участников {@link Interaction#key()} */
+    private Map<Long, Interaction> currentInteractions;
     /** Список взаимодействий между сотрудниками и животными */
     private List<Interaction> interactions;
     /** Журнал взаимодействий сотрудников */
     private List<Interaction> employeeInteractions;
     /** Журнал незаконных действий */
     private List<IllegalAction> illegalActions;
+    /** Текущие контакты, по которым уже зафиксировано нарушение */
+    private final Set<Interaction> violated;
+    /** Количество нарушений каждого сотрудника */
+    private final Map<Tracked, Integer> illegalCounts;
+    /** Таблица текущих местоположений */
+    private final PositionTable table;
+    /** Сетка для поиска объектов, находящихся на расстоянии контакта */
+    private final SpatialGrid grid;
+    /** Ключи текущих контактов каждого объекта */
+    private final Map<Tracked, Set<Long>> contactsOf;
+    /** Ключи контактов, начавшихся на прошлом такте */
+    private final Set<Long> fresh;
+    /** Проверять ли только переместившиеся объекты */
+    private boolean incremental;
+    /** Допуск сжатия журналов перемещений, м; 0 - без сжатия */
+    private double tolerance;
+    /** Объекты по идентификаторам датчиков */
+    private final SensorIndex sensors;
+    /** Количество пропущенных данных от неизвестных датчиков */
+    private long unknownFixes;
+    /** Количество пропущенных измерений, устаревших к моменту получения */
+    private long staleFixes;
+    /** Количество проверок расстояния при поиске соседей; поиск может идти в нескольких потоках */
+    private final LongAdder distanceChecks = new LongAdder();
+    /** Номер текущего такта */
+    private int tickNumber = 1;
+    /** Такт, на котором объект последний раз получил измерение из пакета */
+    private int[] ticks = new int[16];
+    /** Пул для параллельной проверки контактов; {@code null} - однопоточный режим */
+    private ForkJoinPool pool;
+    /** Журнал событий на диске; {@code null} - события хранятся только в памяти */
+    private EventLog log;
+    /** Рассылка событий подписчикам */
+    private final EventDispatcher dispatcher;
+    /** Зоны для событий входа и выхода; {@code null} - зоны не проверяются */
+    private Geofences geofences;
+    /** Тепловая карта измерений; {@code null} - карта не ведётся */
+    private Heatmap heatmap;
+    /** Пирамиды путей объектов для карты */
+    private final Map<Tracked, TrajectoryPyramid> pyramids;
+    /** Планировщик проверок по скоростям; {@code null} - поиск на каждом такте */
+    private ContactScheduler scheduler;
 
 
     /** Сервис отслеживания */
     public TrackingService() {
-        trackable = new HashSet<>();
+        trackable = new LinkedHashSet<>();
         interactions = new ArrayList<>();
-        currentInteractions = new HashSet<>();
-        employeeActions = new ArrayList<>();
+        currentInteractions = new LinkedHashMap<>();
         employeeInteractions = new ArrayList<>();
         illegalActions = new ArrayList<>();
+        violated = Collections.newSetFromMap(new IdentityHashMap<>());
+        illegalCounts = new HashMap<>();
+        table = new PositionTable();
+        employeeActions = new EmployeeActionJournal(table);
+        grid = new SpatialGrid(CONTACT_DISTANCE, table);
+        contactsOf = new HashMap<>();
+        pyramids = new HashMap<>();
+        fresh = new LinkedHashSet<>();
+        sensors = new SensorIndex();
+        dispatcher = new EventDispatcher(DISPATCH_BATCH);
     }
 
 
     //=========== Методы обновления местоположения ===========//
     /** Обновление местоположения отслеживаемых объектов */
     public void updatePositions() {
+        long time = EventTime.now();
         for (Tracked tracked : trackable) {
-            /* Для животного только обновляется местоположение */
-            if (tracked instanceof Animal) {
-                tracked.updatePosition(Math.random() % (zone * 1.5) - zone / 2,
-                        Math.random() % (zone * 1.5) - zone / 2);
-                continue;
-            }
-
-            /* Для сотрудника определяем, будет ли он находиться в
-               той же части пространства по отношению к зоопарку */
-            boolean inZoo = ((Employee) tracked).isInZoo();
-            tracked.updatePosition(Math.random() % (zone * 1.5) - zone / 2,
-                    Math.random() % (zone * 1.5) - zone / 2);
-
-            /* Если сотрудник не входил в зоопарк и не покидал его */
-            if (inZoo == ((Employee) tracked).isInZoo()) {
-                continue;
-            }
-
-            Date date = new Date();
-            /* Если вошёл в зоопарк */
-            if (inZoo) {
-                ((Employee) tracked).setBegin(date);
-            }
-            /* Если вышел из зоопарка */
-            else {
-                ((Employee) tracked).setEnd(date);
-            }
-            employeeActions.add(date + " | " + tracked.getId() +
-                    (inZoo ? " left the zoo" : " entered the zoo"));
+            move(tracked, Math.random() % (zone * 1.5) - zone / 2,
+                    Math.random() % (zone * 1.5) - zone / 2, time);
         }
-
-        /* Проверяем журнал текущих контактов */
-        CurrentOrInterruptedInteractions();
-        /* Добавляем новые */
-        defineInteractions();
+        tick();
     }
+    /**
+     * Обновление местоположения всех объектов в порядке их добавления
+     * @param newPositions местоположения
+     */
     public void updatePositions(Position... newPositions) {
         int i = 0;
         if (newPositions.length != trackable.size()) {
             return;
         }
-        List<Position> positions = new ArrayList<>(Arrays.asList(newPositions));
+        long time = EventTime.now();
         for (Tracked tracked : trackable) {
-
-            /* Для животного только обновляется местоположение */
-            if (tracked instanceof Animal) {
-                tracked.updatePosition(positions.get(i).x, positions.get(i++).y);
+            move(tracked, newPositions[i].x, newPositions[i++].y, time);
+        }
+        tick();
+    }
+    /**
+     * Обновление местоположения одного объекта по данным датчика
+     * @param sensorId идентификатор датчика
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    public void updatePosition(int sensorId, double x, double y, long time) {
+        Tracked tracked = sensors.get(sensorId);
+        if (tracked == null) {
+            unknownFixes++;
+            return;
+        }
+        move(tracked, x, y, time);
+        tick();
+    }
+    /**
+     * Пакетное обновление местоположения по идентификаторам датчиков
+     * @param ids идентификаторы датчиков
+     * @param xs местоположения по OX
+     * @param ys местоположения по OY
+     */
+    public void updatePositions(int[] ids, double[] xs, double[] ys) {
+        updatePositions(ids, xs, ys, ids.length);
+    }
+    /**
+     * Пакетное обновление местоположения по идентификаторам датчиков.
+     * Передаются только датчики, приславшие данные, остальные объекты
+     * остаются на месте. Данные о неизвестных датчиках пропускаются.
+     * Массивы можно переиспользовать между вызовами: читаются первые {@code count} элементов.
+     * Время измерения - момент вызова.
+     * @param ids идентификаторы датчиков
+     * @param xs местоположения по OX
+     * @param ys местоположения по OY
+     * @param count количество записей
+     * @throws IllegalArgumentException если в массивах меньше {@code count} элементов
+     */
+    public void updatePositions(int[] ids, double[] xs, double[] ys, int count) {
+        ingest(ids, xs, ys, null, count);
+    }
+    /**
+     * Пакетное обновление местоположения с временем измерения от датчиков.
+     * Пакет может быть получен с опозданием и содержать несколько измерений
+     * одного датчика: записи обрабатываются по порядку, и перед повторным
+     * измерением датчика проверяются контакты по уже обработанным записям.
+     * Поэтому записи пакета должны идти в порядке времени.
+     * Измерения старше последнего известного для датчика пропускаются.
+     * @param ids идентификаторы датчиков
+     * @param xs местоположения по OX
+     * @param ys местоположения по OY
+     * @param times время измерения, нс
+     * @param count количество записей
+     * @throws IllegalArgumentException если в массивах меньше {@code count} элементов
+     */
+    public void updatePositions(int[] ids, double[] xs, double[] ys, long[] times, int count) {
+        if (times.length < count) {
+            throw new IllegalArgumentException("Expected " + count + " fixes, got " +
+                    times.length + " times");
+        }
+        ingest(ids, xs, ys, times, count);
+    }
+    /**
+     * Обработка пакета измерений
+     * @param ids идентификаторы датчиков
+     * @param xs местоположения по OX
+     * @param ys местоположения по OY
+     * @param times время измерения или {@code null}, если это текущий момент
+     * @param count количество записей
+     */
+    private void ingest(int[] ids, double[] xs, double[] ys, long[] times, int count) {
+        if (count < 0 || ids.length < count || xs.length < count || ys.length < count) {
+            throw new IllegalArgumentException("Expected " + count + " fixes, got " +
+                    ids.length + " ids, " + xs.length + " xs, " + ys.length + " ys");
+        }
+        long now = times == null ? EventTime.now() : 0;
+        for (int i = 0; i < count; i++) {
+            Tracked tracked = sensors.get(ids[i]);
+            if (tracked == null) {
+                unknownFixes++;
                 continue;
             }
-
-            /* Для сотрудника определяем, будет ли он находиться в
-               той же части пространства по отношению к зоопарку */
-            boolean inZoo = ((Employee) tracked).isInZoo();
-            tracked.updatePosition(positions.get(i).x, positions.get(i++).y);
-
-            /* Если сотрудник не входил в зоопарк и не покидал его */
-            if (inZoo == ((Employee) tracked).isInZoo()) {
-                continue;
+            int handle = tracked.getRow().handle(table);
+            if (handle >= ticks.length) {
+                ticks = Arrays.copyOf(ticks, Math.max(handle + 1, ticks.length * 2));
             }
-
-            Date date = new Date();
-            /* Если вошёл в зоопарк */
-            if (!inZoo) {
-                ((Employee) tracked).setBegin(date);
+            /* Второе измерение датчика в пакете - сначала обрабатываем предыдущие */
+            if (ticks[handle] == tickNumber) {
+                tick();
             }
-            /* Если вышел из зоопарка */
-            else {
-                ((Employee) tracked).setEnd(date);
+            ticks[handle] = tickNumber;
+            move(tracked, xs[i], ys[i], times == null ? now : times[i]);
+        }
+        tick();
+    }
+    /**
+     * Перемещение одного объекта.
+     * Для сотрудника дополнительно фиксируется приход и уход из зоопарка.
+     * @param tracked объект
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    private void move(Tracked tracked, double x, double y, long time) {
+        /* Измерение старше уже известного не отменяет более нового */
+        if (time < tracked.getRow().time()) {
+            staleFixes++;
+            return;
+        }
+        if (log != null) {
+            log.fix(tracked.getSensorId(), x, y, time);
+        }
+        if (geofences != null) {
+            geofences.update(tracked, x, y, time, dispatcher);
+        }
+        if (heatmap != null) {
+            heatmap.add(tracked, x, y, time);
+        }
+        if (!pyramids.isEmpty()) {
+            TrajectoryPyramid pyramid = pyramids.get(tracked);
+            if (pyramid != null) {
+                pyramid.add(x, y, time);
             }
-            employeeActions.add(date + " | " + tracked.getId() +
-                    (inZoo ? " left the zoo" : " entered the zoo"));
+        }
+        if (scheduler != null) {
+            scheduler.fix(tracked.getRow().handle(table), table,
+                    tracked.getX(), tracked.getY(), tracked.getRow().time(), x, y, time);
         }
 
+        /* Для животного только обновляется местоположение */
+        if (tracked instanceof Animal) {
+            tracked.updatePosition(x, y, time);
+            return;
+        }
+
+        /* Для сотрудника определяем, будет ли он находиться в
+           той же части пространства по отношению к зоопарку */
+        boolean inZoo = ((Employee) tracked).isInZoo();
+        tracked.updatePosition(x, y, time);
+
+        /* Если сотрудник не входил в зоопарк и не покидал его */
+        if (inZoo == ((Employee) tracked).isInZoo()) {
+            return;
+        }
+
+        employeeAction((Employee) tracked, inZoo, time);
+    }
+    /**
+     * Приход или уход сотрудника: начало или конец смены и запись в журнал
+     * @param employee сотрудник
+     * @param left {@code true}, если сотрудник вышел из зоопарка
+     * @param time время, нс
+     */
+    private void employeeAction(Employee employee, boolean left, long time) {
+        Date date = EventTime.toDate(time);
+        /* Если вошёл в зоопарк */
+        if (!left) {
+            employee.setBegin(date);
+            dispatcher.add(EventDispatcher.SHIFT_BEGIN, employee, date);
+        }
+        /* Если вышел из зоопарка */
+        else {
+            employee.setEnd(date);
+            dispatcher.add(EventDispatcher.SHIFT_END, employee, date);
+        }
+        employeeActions.add(employee.getRow().handle(table), time,
+                left ? EmployeeAction.Type.LEAVE : EmployeeAction.Type.ENTER);
+        if (log != null) {
+            log.single(left ? EventLog.LEAVE : EventLog.ENTER, employee.getSensorId(), time);
+        }
+    }
+    /** Обработка контактов после обновления местоположений */
+    private void tick() {
         /* Проверяем журнал текущих контактов */
         CurrentOrInterruptedInteractions();
         /* Добавляем новые */
         defineInteractions();
+        table.clearMoved();
+        tickNumber++;
+    }
+    /**
+     * Время, когда стало известно о состоянии пары:
+     * последнее из времён измерений участников
+     * @param trackedA первый объект
+     * @param trackedB второй объект
+     * @return время, нс
+     */
+    private static long eventTime(Tracked trackedA, Tracked trackedB) {
+        return Math.max(trackedA.getRow().time(), trackedB.getRow().time());
     }
     //========================================================//
 
@@ -135,99 +324,294 @@ public class TrackingService {
      * Проверяется журнал текущих взаимодействий: если какое-то
      * из них прервалось, то запись добавляется в журнал взаимодействий
      * и удаляется из журнала текущих взаимодействий.
+     * В инкрементальном режиме проверяются только контакты переместившихся
+     * объектов и контакты, начавшиеся на прошлом такте.
      */
     public void CurrentOrInterruptedInteractions() {
 
-        for (Interaction interaction : currentInteractions) {
-            /* Теперь необходимо отследить выход сотрудника с животным */
-            if (isContact(interaction.trackedA(),
-                    interaction.trackedB())) {
-                /* Случай с двумя сотрудниками нас не интересует */
-                if (!(interaction.trackedB() instanceof Animal)) {
-                    continue;
+        List<Interaction> checked;
+        if (!incremental) {
+            checked = new ArrayList<>(currentInteractions.values());
+        } else {
+            Set<Long> keys = new LinkedHashSet<>(fresh);
+            IntList moved = table.movedRows();
+            for (int i = 0; i < moved.size(); i++) {
+                Set<Long> contacts = contactsOf.get(table.tracked(moved.get(i)));
+                if (contacts != null) {
+                    keys.addAll(contacts);
                 }
-                /* Проверяем, находится ли сотрудник в зоопарке */
-                if (((Employee) interaction.trackedA()).isInZoo()) {
-                    continue;
-                }
-                /* Опа, нарушение!
-                Проверяем, было ли это нарушение уже зафиксировано */
-                boolean wasNoticed = false;
-                IllegalAction illegalAction = new IllegalAction(
-                        interaction, new Date());
-                for (IllegalAction temp : illegalActions) {
-                    if (notEqual(illegalAction, temp)) {
-                        continue;
-                    }
-                    wasNoticed = true;
-                    break;
-                }
-                /* Если преступление было зафиксировано ранее */
-                if (wasNoticed) {
-                    continue;
+            }
+            checked = new ArrayList<>(keys.size());
+            for (long key : keys) {
+                Interaction interaction = currentInteractions.get(key);
+                if (interaction != null) {
+                    checked.add(interaction);
                 }
-                illegalActions.add(illegalAction);
-                continue;
             }
+        }
+        fresh.clear();
 
-            /* удаляем из журнала текущих контактов */
-            currentInteractions.remove(interaction);
-            /* устанавливаем конец контакта */
-            interaction.setEnd(new Date());
-            /* добавляем контакт в журнал */
-            if (interaction.trackedB() instanceof Animal) {
-                interactions.add(interaction);
-                /* Нас интересует случай, когда сотрудник - опекун животного */
-                if (!(((Employee) interaction.trackedA()).isCare(
-                        (Animal) interaction.trackedB()))) {
-                    return;
-                }
-                /* Добавляем запись о контакте сотрудника и подопечного */
-                ((Employee) interaction.trackedA()).add(
-                        new WardInteraction(
-                                (Animal) interaction.trackedB(),
-                                interaction.getBegin(),
-                                interaction.getEnd()));
-                return;
+        boolean[] contacts = pool == null ? null
+                : ParallelContacts.contacts(pool, checked, this);
+        for (int i = 0; i < checked.size(); i++) {
+            Interaction interaction = checked.get(i);
+            boolean contact = contacts == null
+                    ? isContact(interaction.trackedA(), interaction.trackedB())
+                    : contacts[i];
+            if (contact) {
+                checkInteraction(interaction);
+                continue;
             }
+            /* удаляем из журнала текущих контактов */
+            currentInteractions.remove(interaction.key());
+            closeInteraction(interaction,
+                    eventTime(interaction.trackedA(), interaction.trackedB()));
+        }
+        dispatcher.flush();
+    }
+    /**
+     * Проверка продолжающегося взаимодействия:
+     * не вывел ли сотрудник животное из зоопарка
+     * @param interaction взаимодействие
+     */
+    private void checkInteraction(Interaction interaction) {
+        /* Случай с двумя сотрудниками нас не интересует */
+        if (!(interaction.trackedB() instanceof Animal)) {
+            return;
+        }
+        /* Проверяем, находится ли сотрудник в зоопарке */
+        if (((Employee) interaction.trackedA()).isInZoo()) {
+            return;
+        }
+        /* Опа, нарушение!
+        Проверяем, было ли это нарушение уже зафиксировано */
+        if (violated.contains(interaction)) {
+            /* Если преступление было зафиксировано ранее */
+            return;
+        }
+        long time = eventTime(interaction.trackedA(), interaction.trackedB());
+        addIllegalAction(interaction, new IllegalAction(interaction, EventTime.toDate(time)));
+        if (log != null) {
+            log.pair(EventLog.ILLEGAL, interaction.trackedA().getSensorId(),
+                    interaction.trackedB().getSensorId(), time);
+        }
+    }
+    /**
+     * Запись нарушения: одно нарушение на контакт, пока он продолжается
+     * @param interaction контакт, при котором совершено нарушение
+     * @param illegalAction нарушение
+     */
+    void addIllegalAction(Interaction interaction, IllegalAction illegalAction) {
+        if (currentInteractions.get(interaction.key()) == interaction) {
+            violated.add(interaction);
+        }
+        illegalActions.add(illegalAction);
+        illegalCounts.merge(illegalAction.getEmployee(), 1, Integer::sum);
+        dispatcher.add(EventDispatcher.ILLEGAL_ACTION, illegalAction, null);
+    }
+    /**
+     * Завершение контакта, уже удалённого из текущих
+     * @param interaction взаимодействие
+     * @param time время завершения, нс
+     */
+    private void closeInteraction(Interaction interaction, long time) {
+        forgetContact(interaction.trackedA(), interaction.key());
+        forgetContact(interaction.trackedB(), interaction.key());
+        violated.remove(interaction);
+        /* устанавливаем конец контакта */
+        interaction.setEnd(EventTime.toDate(time));
+        dispatcher.add(EventDispatcher.CONTACT_CLOSED, interaction, null);
+        if (log != null) {
+            log.pair(EventLog.CONTACT_END, interaction.trackedA().getSensorId(),
+                    interaction.trackedB().getSensorId(), time);
+        }
+        /* добавляем контакт в журнал */
+        if (!(interaction.trackedB() instanceof Animal)) {
             employeeInteractions.add(interaction);
+            return;
         }
+        interactions.add(interaction);
+        /* Нас интересует случай, когда сотрудник - опекун животного */
+        if (!(((Employee) interaction.trackedA()).isCare(
+                (Animal) interaction.trackedB()))) {
+            return;
+        }
+        /* Добавляем запись о контакте сотрудника и подопечного */
+        ((Employee) interaction.trackedA()).add(
+                new WardInteraction(
+                        (Animal) interaction.trackedB(),
+                        interaction.getBegin(),
+                        interaction.getEnd()));
     }
     /**
      * Метод, определяющий взаимодействие сотрудников и животных.
      * Проводится поиск контактов "сотрудник : животное ", которые
-     * добавляются в список текущих контактов
+     * добавляются в список текущих контактов.
+     * Объекты раскладываются по сетке с ячейками размером с расстояние
+     * контакта, поэтому каждый сотрудник сравнивается только с объектами
+     * из соседних ячеек. В инкрементальном режиме проверяются только
+     * переместившиеся объекты.
      */
     public void defineInteractions() {
 
-        /* Для определённости первый объект - сотрудник */
-        for (Tracked trackedA : trackable) {
-            if (trackedA instanceof Animal) {
-                continue;
-            }
-            for (Tracked trackedB : trackable) {
-                if (trackedA == trackedB) {
+        IntList subjects = new IntList();
+        if (!incremental) {
+            for (int handle = 0; handle < table.size(); handle++) {
+                if (table.kind(handle) == PositionTable.REMOVED) {
                     continue;
                 }
-                if (!isContact(trackedA, trackedB)) {
+                grid.update(handle);
+                /* Для определённости первый объект - сотрудник */
+                if (table.kind(handle) == PositionTable.EMPLOYEE) {
+                    subjects.add(handle);
+                }
+            }
+        } else {
+            IntList moved = table.movedRows();
+            for (int i = 0; i < moved.size(); i++) {
+                int handle = moved.get(i);
+                if (table.kind(handle) == PositionTable.REMOVED) {
                     continue;
                 }
-                boolean ongoingContact = false;
-                for (Interaction interaction : currentInteractions) {
-                    if ((interaction.trackedA() == trackedA) && (interaction.trackedB() == trackedB) ||
-                            (interaction.trackedB() == trackedA) && (interaction.trackedA() == trackedB)) {
-                        ongoingContact = true;
-                        break;
-                    }
+                grid.update(handle);
+                subjects.add(handle);
+            }
+        }
+        if (scheduler != null) {
+            subjects = schedule(subjects);
+        }
+
+        if (pool != null) {
+            ParallelContacts.Pairs pairs = ParallelContacts.collect(pool, table, subjects,
+                    CONTACT_DISTANCE, this::collectContacts);
+            for (int i = 0; i < subjects.size(); i++) {
+                if (scheduler != null) {
+                    scheduler.anchor(subjects.get(i), table, pairs.clear(i), CONTACT_DISTANCE);
                 }
-                if (ongoingContact) {
+                openInteractions(pairs.list(i), pairs.from(i), pairs.to(i));
+            }
+        } else {
+            IntList pairs = new IntList();
+            for (int i = 0; i < subjects.size(); i++) {
+                double clear = collectContacts(subjects.get(i), pairs);
+                if (scheduler != null) {
+                    scheduler.anchor(subjects.get(i), table, clear, CONTACT_DISTANCE);
+                }
+            }
+            openInteractions(pairs, 0, pairs.size());
+        }
+        dispatcher.flush();
+    }
+    /**
+     * Отбор объектов, которым нужен поиск соседей на этом такте
+     * @param subjects строки объектов
+     * @return строки объектов, с которыми мог начаться контакт
+     */
+    private IntList schedule(IntList subjects) {
+        scheduler.invalidate(table, grid, CONTACT_DISTANCE, CONTACT_DISTANCE);
+        IntList due = new IntList();
+        for (int i = 0; i < subjects.size(); i++) {
+            if (!scheduler.skip(subjects.get(i), table)) {
+                due.add(subjects.get(i));
+            }
+        }
+        return due;
+    }
+    /**
+     * Поиск объектов, находящихся в контакте с данным.
+     * Для сотрудника проверяются все соседи, для животного - только сотрудники.
+     * Пары добавляются в список подряд: сначала сотрудник, затем второй объект.
+     * С планировщиком по тем же соседям рассчитывается свободное расстояние
+     * объекта; сам планировщик здесь не меняется, поэтому метод можно
+     * вызывать из задач пула.
+     * @param handle строка объекта
+     * @param pairs список найденных пар
+     * @return расстояние, ближе которого нет возможных партнёров;
+     *         без планировщика - {@link Double#NaN}
+     */
+    private double collectContacts(int handle, IntList pairs) {
+        boolean employee = table.kind(handle) == PositionTable.EMPLOYEE;
+        int column = grid.cell(table.x(handle));
+        int row = grid.cell(table.y(handle));
+        int checks = 0;
+        double nearest = Double.POSITIVE_INFINITY;
+        for (int i = column - 1; i <= column + 1; i++) {
+            for (int j = row - 1; j <= row + 1; j++) {
+                int cell = grid.find(i, j);
+                if (cell < 0) {
                     continue;
                 }
-                currentInteractions.add(new Interaction(
-                        trackedA, trackedB, new Date()));
+                checks += grid.count(cell);
+                for (int k = 0; k < grid.count(cell); k++) {
+                    int neighbour = grid.item(cell, k);
+                    if (neighbour == handle) {
+                        continue;
+                    }
+                    if (scheduler != null && (employee || table.kind(neighbour) == PositionTable.EMPLOYEE)) {
+                        nearest = Math.min(nearest, Math.hypot(table.x(neighbour) - table.x(handle),
+                                table.y(neighbour) - table.y(handle)));
+                    }
+                    if (!table.isContact(handle, neighbour, CONTACT_DISTANCE)) {
+                        continue;
+                    }
+                    if (employee) {
+                        pairs.add(handle);
+                        pairs.add(neighbour);
+                    } else if (table.kind(neighbour) == PositionTable.EMPLOYEE) {
+                        pairs.add(neighbour);
+                        pairs.add(handle);
+                    }
+                }
+            }
+        }
+        distanceChecks.add(checks);
+        if (scheduler == null) {
+            return Double.NaN;
+        }
+        /* Объекты вне блока 3 x 3 ячейки вокруг объекта не ближе его края */
+        double edge = Math.min(
+                Math.min(table.x(handle) - (column - 1) * CONTACT_DISTANCE,
+                        (column + 2) * CONTACT_DISTANCE - table.x(handle)),
+                Math.min(table.y(handle) - (row - 1) * CONTACT_DISTANCE,
+                        (row + 2) * CONTACT_DISTANCE - table.y(handle)));
+        return Math.min(nearest, edge);
+    }
+    /**
+     * Добавление найденных пар в список текущих контактов,
+     * если контакт ещё не зафиксирован
+     * @param pairs строки пар объектов, записанные подряд
+     * @param from начало пар в списке
+     * @param to конец пар в списке
+     */
+    private void openInteractions(IntList pairs, int from, int to) {
+        for (int i = from; i < to; i += 2) {
+            Tracked trackedA = table.tracked(pairs.get(i));
+            Tracked trackedB = table.tracked(pairs.get(i + 1));
+            long key = Interaction.key(trackedA, trackedB);
+            if (currentInteractions.containsKey(key)) {
+                continue;
+            }
+            long time = eventTime(trackedA, trackedB);
+            Interaction interaction = new Interaction(trackedA, trackedB, EventTime.toDate(time));
+            openInteraction(interaction);
+            dispatcher.add(EventDispatcher.CONTACT_OPENED, interaction, null);
+            if (log != null) {
+                log.pair(EventLog.CONTACT_BEGIN, trackedA.getSensorId(),
+                        trackedB.getSensorId(), time);
             }
+            fresh.add(key);
         }
     }
+    /**
+     * Добавление контакта в список текущих
+     * @param interaction взаимодействие
+     */
+    void openInteraction(Interaction interaction) {
+        long key = interaction.key();
+        currentInteractions.put(key, interaction);
+        rememberContact(interaction.trackedA(), key);
+        rememberContact(interaction.trackedB(), key);
+    }
     /**
      * Определяет, есть ли контакт между объектами
      * @param trackedA первый объект
@@ -235,13 +619,37 @@ public class TrackingService {
      * @return {@code true}, если есть контакт
      */
     public boolean isContact(Tracked trackedA, Tracked trackedB) {
-        Employee a = (Employee) trackedA;
-        if (trackedB instanceof Employee) {
-            Employee b = (Employee) trackedB;
-            return Math.pow(b.x - a.x, 2) + Math.pow(b.y - a.y, 2) <= 9;
+        double dx = trackedB.getX() - trackedA.getX();
+        double dy = trackedB.getY() - trackedA.getY();
+        return dx * dx + dy * dy <= CONTACT_DISTANCE * CONTACT_DISTANCE;
+    }
+    /**
+     * Запоминание текущего контакта объекта
+     * @param tracked объект
+     * @param key ключ контакта
+     */
+    private void rememberContact(Tracked tracked, long key) {
+        Set<Long> contacts = contactsOf.get(tracked);
+        if (contacts == null) {
+            contacts = new HashSet<>();
+            contactsOf.put(tracked, contacts);
+        }
+        contacts.add(key);
+    }
+    /**
+     * Удаление завершившегося контакта объекта
+     * @param tracked объект
+     * @param key ключ контакта
+     */
+    private void forgetContact(Tracked tracked, long key) {
+        Set<Long> contacts = contactsOf.get(tracked);
+        if (contacts == null) {
+            return;
+        }
+        contacts.remove(key);
+        if (contacts.isEmpty()) {
+            contactsOf.remove(tracked);
         }
-        Animal b = (Animal) trackedB;
-        return Math.pow(b.x - a.x, 2) + Math.pow(b.y - a.y, 2) <= 9;
     }
     //===============================================================//
 
@@ -261,22 +669,368 @@ public class TrackingService {
 
 
     /**
-     * Добавление отслеживаемого объекта
+     * Добавление отслеживаемого объекта. Объект, который отслеживает
+     * другой сервис, сначала снимается с отслеживания в нём
      * @param tracked объект
      */
     public void add(Tracked... tracked) {
-        trackable.addAll(Arrays.asList(tracked));
+        for (Tracked temp : tracked) {
+            if (trackable.contains(temp)) {
+                continue;
+            }
+            PositionRow row = temp.getRow();
+            if (row.service() != null) {
+                row.service().remove(temp);
+            }
+            sensors.put(temp);
+            int handle = table.add(temp, temp instanceof Employee
+                            ? PositionTable.EMPLOYEE : PositionTable.ANIMAL,
+                    row.x(), row.y(), row.time());
+            /* Дальше местоположение объекта хранится в таблице */
+            row.attach(this, table, handle);
+            trackable.add(temp);
+            if (scheduler != null) {
+                scheduler.reset();
+            }
+            if (tolerance > 0) {
+                temp.getMovementJournal().setTolerance(tolerance);
+            }
+        }
     }
     /**
-     * Снятие отслеживания с объекта
+     * Снятие отслеживания с объекта: его текущие контакты завершаются
+     * временем последнего измерения, а если подключены зоны, объект выходит
+     * из них. Строка объекта в таблице освобождается
      * @param tracked объект
      */
     public void remove(Tracked... tracked) {
         for (Tracked temp : tracked) {
+            int handle = temp.getRow().handle(table);
+            if (handle < 0) {
+                continue;
+            }
+            Set<Long> contacts = contactsOf.get(temp);
+            if (contacts != null) {
+                for (long key : new ArrayList<>(contacts)) {
+                    Interaction interaction = currentInteractions.remove(key);
+                    closeInteraction(interaction,
+                            eventTime(interaction.trackedA(), interaction.trackedB()));
+                }
+            }
+            if (geofences != null) {
+                geofences.forget(temp, temp.getRow().time(), dispatcher);
+            }
             trackable.remove(temp);
+            sensors.remove(temp);
+            pyramids.remove(temp);
+            if (heatmap != null) {
+                heatmap.forget(temp);
+            }
+            grid.remove(handle);
+            table.remove(handle);
+            temp.getRow().detach();
+        }
+        dispatcher.flush();
+    }
+
+
+    /**
+     * Включение инкрементального режима: на каждом такте проверяются
+     * только объекты, местоположение которых изменилось через сервис,
+     * а контакты неподвижных пар сохраняют своё состояние
+     * @param incremental {@code true}, чтобы проверять только переместившиеся объекты
+     */
+    public void setIncremental(boolean incremental) {
+        if (incremental && !this.incremental) {
+            /* Первый такт после включения проверяет все объекты */
+            for (int handle = 0; handle < table.size(); handle++) {
+                if (table.kind(handle) != PositionTable.REMOVED) {
+                    table.markMoved(handle);
+                }
+            }
+            fresh.addAll(currentInteractions.keySet());
+        }
+        this.incremental = incremental;
+    }
+    public boolean isIncremental() {
+        return incremental;
+    }
+    /**
+     * Сжатие журналов перемещений всех отслеживаемых объектов:
+     * хранятся только точки, по которым путь восстанавливается
+     * с точностью до {@code tolerance}
+     * @param tolerance допуск, м; 0 - выключить сжатие
+     */
+    public void setTolerance(double tolerance) {
+        if (tolerance < 0 || Double.isNaN(tolerance)) {
+            throw new IllegalArgumentException("tolerance=" + tolerance);
+        }
+        for (Tracked tracked : trackable) {
+            tracked.getMovementJournal().setTolerance(tolerance);
+        }
+        this.tolerance = tolerance;
+    }
+    public double getTolerance() {
+        return tolerance;
+    }
+    /**
+     * Включение параллельной проверки контактов: зона делится на участки,
+     * которые проверяются в {@code pool}. Новые, завершённые контакты и
+     * нарушения получаются теми же и в том же порядке, что и в однопоточном режиме
+     * @param pool пул потоков или {@code null} для однопоточного режима
+     */
+    public void setParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+    public ForkJoinPool getParallel() {
+        return pool;
+    }
+    /**
+     * Подключение журнала событий на диске: дальше в него дописываются
+     * местоположения, начала и концы контактов, приходы и уходы сотрудников
+     * и незаконные действия. Журналы в памяти ведутся как прежде.
+     * @param log журнал или {@code null}, чтобы отключить запись
+     */
+    public void setEventLog(EventLog log) {
+        this.log = log;
+    }
+    public EventLog getEventLog() {
+        return log;
+    }
+    /**
+     * Подключение зон: при каждом измерении проверяется, в каких зонах
+     * находится объект, и подписчики получают события входа и выхода.
+     * Зоны объектов становятся известны с их следующего измерения.
+     * @param geofences зоны или {@code null}, чтобы не проверять зоны
+     */
+    public void setGeofences(Geofences geofences) {
+        this.geofences = geofences;
+    }
+    public Geofences getGeofences() {
+        return geofences;
+    }
+    /**
+     * Подключение тепловой карты: каждое принятое измерение учитывается в ней
+     * @param heatmap карта или {@code null}, чтобы не вести карту
+     */
+    public void setHeatmap(Heatmap heatmap) {
+        this.heatmap = heatmap;
+    }
+    public Heatmap getHeatmap() {
+        return heatmap;
+    }
+    /**
+     * Подключение пирамиды путей: дальше каждое принятое измерение объекта
+     * передаётся в неё. Вызывается в потоке отслеживания, сразу после
+     * создания пирамиды, чтобы между ними не потерялись измерения
+     * @param pyramid пирамида отслеживаемого объекта
+     */
+    public void addPyramid(TrajectoryPyramid pyramid) {
+        pyramids.put(pyramid.getTracked(), pyramid);
+    }
+    /**
+     * Отключение пирамиды путей объекта
+     * @param tracked объект
+     */
+    public void removePyramid(Tracked tracked) {
+        pyramids.remove(tracked);
+    }
+    /**
+     * Подключение планировщика: поиск соседей объекта пропускается, пока
+     * по наибольшим скоростям контакт с ним начаться не мог.
+     * Набор найденных контактов тот же, что и без планировщика,
+     * порядок обнаружения на одном такте может отличаться
+     * @param scheduler планировщик или {@code null}, чтобы искать на каждом такте
+     */
+    public void setContactScheduler(ContactScheduler scheduler) {
+        if (scheduler != null) {
+            scheduler.reset();
         }
+        this.scheduler = scheduler;
+    }
+    public ContactScheduler getContactScheduler() {
+        return scheduler;
     }
 
+    /**
+     * Подписка на события: начало и конец контакта, начало и конец смены,
+     * незаконное действие, вход в зону и выход из неё. События рассылаются в потоке, обновляющем
+     * местоположения, пакетами не позже конца текущего такта
+     * @param listener подписчик
+     */
+    public void subscribe(TrackingListener listener) {
+        dispatcher.subscribe(listener);
+    }
+    /**
+     * Отмена подписки
+     * @param listener подписчик
+     */
+    public void unsubscribe(TrackingListener listener) {
+        dispatcher.unsubscribe(listener);
+    }
+
+    /**
+     * Применение хвоста журнала событий после восстановления из снимка.
+     * Измерения только обновляют местоположение и журнал перемещений,
+     * контакты не пересчитываются: начала и концы контактов, приходы и уходы
+     * и нарушения берутся из журнала в записанном виде и рассылаются подписчикам.
+     * @param cursor курсор, стоящий перед первой записью хвоста
+     * @return количество применённых записей
+     */
+    public long replay(EventLog.Cursor cursor) {
+        EventLog attached = log;
+        /* Применяемые события уже есть в журнале */
+        log = null;
+        long replayed = 0;
+        while (cursor.next()) {
+            Tracked trackedA = sensors.get(cursor.sensorA());
+            if (trackedA == null) {
+                unknownFixes += cursor.type() == EventLog.FIX ? 1 : 0;
+                continue;
+            }
+            Tracked trackedB = cursor.sensorB() < 0 ? null : sensors.get(cursor.sensorB());
+            long time = cursor.time();
+            switch (cursor.type()) {
+                case EventLog.FIX:
+                    if (time >= trackedA.getRow().time()) {
+                        trackedA.updatePosition(cursor.x(), cursor.y(), time);
+                        if (geofences != null) {
+                            geofences.update(trackedA, cursor.x(), cursor.y(), time, dispatcher);
+                        }
+                        if (heatmap != null) {
+                            heatmap.add(trackedA, cursor.x(), cursor.y(), time);
+                        }
+                        TrajectoryPyramid pyramid = pyramids.get(trackedA);
+                        if (pyramid != null) {
+                            pyramid.add(cursor.x(), cursor.y(), time);
+                        }
+                    }
+                    break;
+                case EventLog.ENTER:
+                case EventLog.LEAVE:
+                    employeeAction((Employee) trackedA, cursor.type() == EventLog.LEAVE, time);
+                    break;
+                case EventLog.CONTACT_BEGIN:
+                    if (trackedB != null) {
+                        Interaction opened = new Interaction(
+                                trackedA, trackedB, EventTime.toDate(time));
+                        openInteraction(opened);
+                        dispatcher.add(EventDispatcher.CONTACT_OPENED, opened, null);
+                    }
+                    break;
+                case EventLog.CONTACT_END:
+                    Interaction interaction = trackedB == null ? null
+                            : currentInteractions.remove(Interaction.key(trackedA, trackedB));
+                    if (interaction != null) {
+                        closeInteraction(interaction, time);
+                    }
+                    break;
+                case EventLog.ILLEGAL:
+                    Interaction current = trackedB == null ? null
+                            : currentInteractions.get(Interaction.key(trackedA, trackedB));
+                    if (current != null) {
+                        addIllegalAction(current, new IllegalAction(current, EventTime.toDate(time)));
+                    }
+                    break;
+                default:
+                    continue;
+            }
+            replayed++;
+        }
+        log = attached;
+        dispatcher.flush();
+        if (scheduler != null) {
+            scheduler.reset();
+        }
+        /* Первый такт после восстановления проверяет все объекты */
+        table.clearMoved();
+        if (incremental) {
+            incremental = false;
+            setIncremental(true);
+        }
+        return replayed;
+    }
+    /**
+     * Восстановление записи о приходе или уходе из снимка.
+     * Сотрудник, уже снятый с отслеживания, получает строку удалённого объекта.
+     * @param employee сотрудник
+     * @param time время, нс
+     * @param type вид события
+     */
+    void restoreEmployeeAction(Tracked employee, long time, EmployeeAction.Type type) {
+        int handle = employee.getRow().handle(table);
+        if (handle < 0) {
+            handle = table.add(employee, PositionTable.REMOVED,
+                    employee.getX(), employee.getY(), employee.getRow().time());
+        }
+        employeeActions.add(handle, time, type);
+    }
+    /**
+     * Восстановление счётчиков пропущенных данных из снимка
+     * @param unknownFixes данные от неизвестных датчиков
+     * @param staleFixes устаревшие измерения
+     */
+    void restoreCounters(long unknownFixes, long staleFixes) {
+        this.unknownFixes = unknownFixes;
+        this.staleFixes = staleFixes;
+    }
+
+    /**
+     * Объект по идентификатору датчика
+     * @param sensorId идентификатор датчика
+     * @return объект или {@code null}, если датчик не отслеживается
+     */
+    public Tracked getTracked(int sensorId) {
+        return sensors.get(sensorId);
+    }
+    /**
+     * Количество данных, пропущенных из-за неизвестного идентификатора датчика
+     * @return количество
+     */
+    public long getUnknownFixes() {
+        return unknownFixes;
+    }
+    /**
+     * Количество измерений, пропущенных из-за того, что для датчика
+     * уже известно более новое
+     * @return количество
+     */
+    public long getStaleFixes() {
+        return staleFixes;
+    }
+    /**
+     * Количество проверок расстояния при поиске соседей
+     * @return количество
+     */
+    public long getDistanceChecks() {
+        return distanceChecks.sum();
+    }
+    /**
+     * Количество исключений, выброшенных подписчиками при рассылке событий
+     * @return количество
+     */
+    public long getListenerFailures() {
+        return dispatcher.getFailures();
+    }
+    /**
+     * Последнее исключение подписчика
+     * @return исключение или {@code null}, если подписчики не ошибались
+     */
+    public RuntimeException getLastListenerFailure() {
+        return dispatcher.getLastFailure();
+    }
+
+    /**
+     * Номер строки объекта в таблице местоположений
+     * @param tracked объект
+     * @return номер строки или -1, если объект не отслеживается
+     */
+    public int getHandle(Tracked tracked) {
+        return tracked.getRow().handle(table);
+    }
+    public PositionTable getPositionTable() {
+        return table;
+    }
 
     public Set<Tracked> getTrackable() {
         return trackable;
@@ -285,9 +1039,25 @@ public class TrackingService {
         return interactions;
     }
     public Set<Interaction> getCurrentInteractions() {
-        return currentInteractions;
+        return new LinkedHashSet<>(currentInteractions.values());
     }
+    /**
+     * Текущее взаимодействие двух объектов
+     * @param trackedA первый объект
+     * @param trackedB второй объект
+     * @return взаимодействие или {@code null}, если контакта нет
+     */
+    public Interaction getCurrentInteraction(Tracked trackedA, Tracked trackedB) {
+        return currentInteractions.get(Interaction.key(trackedA, trackedB));
+    }
+    /**
+     * Журнал приходов и уходов в текстовом виде; строки формируются при чтении
+     * @return список только для чтения
+     */
     public List<String> getEmployeeActions() {
+        return employeeActions.asText();
+    }
+    public EmployeeActionJournal getEmployeeActionJournal() {
         return employeeActions;
     }
     public List<Interaction> getEmployeeInteractions() {
@@ -303,11 +1073,8 @@ public class TrackingService {
      * @return количество преступлений
      */
     public int getIllegalActionsNumber(Employee employee) {
-        int number = 0;
-        for (IllegalAction illegalAction : illegalActions) {
-            number += illegalAction.getEmployee() == employee ? 1 : 0;
-        }
-        return number;
+        Integer number = illegalCounts.get(employee);
+        return number == null ? 0 : number;
     }
 
     @Override
@@ -315,7 +1082,7 @@ public class TrackingService {
         return "TrackingService{" +
                 "trackable=" + trackable +
                 ", employeeActions=" + employeeActions +
-                ", currentInteractions=" + currentInteractions +
+                ", currentInteractions=" + currentInteractions.values() +
                 ", interactions=" + interactions +
                 ", employeeInteractions=" + employeeInteractions +
                 ", illegalActions=" + illegalActions +
@@ -0,0 +1,171 @@
+package tracking;
+
+/**
+ * Пирамида упрощённых путей объекта для разных масштабов карты.
+ * Уровень 0 - все измерения объекта, уровень {@code k} - тот же путь,
+ * отклоняющийся от измерений не больше чем на {@code finest * 2^(k-1)}.
+ * Каждый уровень строится из закрытых точек предыдущего (см.
+ * {@link MovementJournal#setTolerance(double)}), поэтому пирамида пополняется
+ * по мере прихода измерений и не пересчитывается целиком. Отклонения уровней
+ * складываются, поэтому допуск сжатия уровня {@code k > 1} - лишь прибавка
+ * {@code finest * 2^(k-2)} к отклонению предыдущего.
+ * Путь уровня дополняется точками нижних уровней, ещё не переданными
+ * наверх, поэтому доходит до самого свежего измерения.
+ * <p>
+ * Пирамида хранит свои уровни сама, включая уровень 0, и не читает журнал
+ * объекта, который пишет сервис. Создаётся она по уже накопленному журналу
+ * и подключается методом {@link TrackingService#addPyramid(TrajectoryPyramid)}
+ * в потоке отслеживания; дальше измерения передаёт сервис, а запросы
+ * можно выполнять из любого потока.
+ */
+public class TrajectoryPyramid {
+
+    /** Количество уровней, включая все измерения */
+    public static final int LEVELS = 9;
+
+
+    /** Объект */
+    private final Tracked tracked;
+    /** Уровни; уровень 0 - все измерения */
+    private final MovementJournal[] levels;
+    /** Наибольшее отклонение каждого уровня от измерений, м */
+    private final double[] bounds;
+    /** Количество точек каждого уровня, уже переданных на следующий */
+    private final int[] consumed;
+
+
+    /**
+     * Пирамида с допуском первого уровня 1 м
+     * @param tracked объект
+     */
+    public TrajectoryPyramid(Tracked tracked) {
+        this(tracked, 1);
+    }
+    /**
+     * Пирамида по журналу перемещений объекта
+     * @param tracked объект
+     * @param finest допуск первого уровня, м
+     */
+    public TrajectoryPyramid(Tracked tracked, double finest) {
+        if (finest <= 0) {
+            throw new IllegalArgumentException("finest=" + finest);
+        }
+        this.tracked = tracked;
+        levels = new MovementJournal[LEVELS];
+        bounds = new double[LEVELS];
+        levels[0] = new MovementJournal();
+        for (int level = 1; level < LEVELS; level++) {
+            bounds[level] = finest * (1L << (level - 1));
+            levels[level] = new MovementJournal();
+            levels[level].setTolerance(bounds[level] - bounds[level - 1]);
+        }
+        consumed = new int[LEVELS];
+        MovementJournal.Cursor cursor = tracked.getMovementJournal().cursor(0);
+        while (cursor.next()) {
+            add(cursor.x(), cursor.y(), cursor.time());
+        }
+    }
+
+
+    /**
+     * Новое измерение объекта; вызывается сервисом
+     * @param x по OX
+     * @param y по OY
+     * @param time время измерения, нс
+     */
+    synchronized void add(double x, double y, long time) {
+        levels[0].record(x, y, time);
+        /* Последняя точка уровня ещё может замениться, поэтому передаётся
+           на следующий уровень только после появления новой */
+        for (int level = 1; level < LEVELS; level++) {
+            MovementJournal source = levels[level - 1];
+            MovementJournal target = levels[level];
+            for (int i = consumed[level - 1]; i < source.size() - 1; i++) {
+                target.record(source.x(i), source.y(i), source.time(i));
+            }
+            consumed[level - 1] = Math.max(consumed[level - 1], source.size() - 1);
+        }
+    }
+    /**
+     * Путь за промежуток времени: берётся самый грубый уровень, отклоняющийся
+     * от измерений не больше чем на {@code resolution}; если точек больше {@code limit}, уровень
+     * огрубляется, а на самом грубом точки прореживаются равномерно
+     * @param from начало промежутка, нс
+     * @param to конец промежутка (включительно), нс
+     * @param resolution допустимое отклонение, м (например, размер пикселя)
+     * @param limit наибольшее количество точек, не меньше 2
+     * @return точки пути с временем; копия, не связанная с пирамидой
+     */
+    public synchronized MovementJournal path(long from, long to, double resolution, int limit) {
+        if (limit < 2) {
+            throw new IllegalArgumentException("limit=" + limit);
+        }
+        int level = 0;
+        while (level + 1 < LEVELS && bounds[level + 1] <= resolution) {
+            level++;
+        }
+        while (level + 1 < LEVELS && count(level, from, to) > limit) {
+            level++;
+        }
+
+        MovementJournal points = new MovementJournal();
+        for (int piece = level; piece >= 0; piece--) {
+            MovementJournal journal = levels[piece];
+            int first = Math.max(journal.indexAt(from - 1) + 1, start(level, piece));
+            int last = journal.indexAt(to);
+            for (int i = first; i <= last; i++) {
+                points.append(journal.x(i), journal.y(i), journal.time(i));
+            }
+        }
+        if (points.size() <= limit) {
+            return points;
+        }
+        /* Равномерное прореживание с сохранением первой и последней точки */
+        MovementJournal path = new MovementJournal();
+        for (int k = 0; k < limit; k++) {
+            int i = (int) ((long) k * (points.size() - 1) / (limit - 1));
+            path.append(points.x(i), points.y(i), points.time(i));
+        }
+        return path;
+    }
+    /**
+     * Количество точек уровня
+     * @param level номер уровня
+     * @return количество
+     */
+    public synchronized int size(int level) {
+        return levels[level].size();
+    }
+    /**
+     * Наибольшее отклонение пути уровня от измерений
+     * @param level номер уровня
+     * @return отклонение, м; 0 для уровня 0
+     */
+    public double tolerance(int level) {
+        return bounds[level];
+    }
+    public Tracked getTracked() {
+        return tracked;
+    }
+
+
+    /** Количество точек пути уровня в промежутке */
+    private int count(int level, long from, long to) {
+        int count = 0;
+        for (int piece = level; piece >= 0; piece--) {
+            MovementJournal journal = levels[piece];
+            int first = Math.max(journal.indexAt(from - 1) + 1, start(level, piece));
+            count += Math.max(0, journal.indexAt(to) - first + 1);
+        }
+        return count;
+    }
+    /**
+     * Начало части пути уровня {@code level}, взятой с уровня {@code piece}:
+     * за точками уровня идут точки нижних уровней, ещё не переданные наверх.
+     * Каждая часть отклоняется от измерений не больше своего уровня, а соседние
+     * части сходятся в общей точке.
+     */
+    private int start(int level, int piece) {
+        return piece == level ? 0 : consumed[piece];
+    }
+}
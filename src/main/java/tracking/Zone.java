@@ -0,0 +1,111 @@
+package tracking;
+
+/**
+ * Зона на плане зоопарка: вольер, служебная территория, выход.
+ * Граница - многоугольник, вершины которого перечислены по порядку обхода.
+ * Точка на границе может считаться как внутри, так и снаружи зоны.
+ */
+public final class Zone {
+
+    /** Название зоны */
+    private final String name;
+    /* Вершины многоугольника */
+    private final double[] xs;
+    private final double[] ys;
+    /* Ограничивающий прямоугольник */
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+
+
+    /**
+     * Зона
+     * @param name название
+     * @param coordinates координаты вершин попарно: x1, y1, x2, y2, ...
+     * @throws IllegalArgumentException если вершин меньше трёх или координат нечётное число
+     */
+    public Zone(String name, double... coordinates) {
+        if (coordinates.length < 6 || coordinates.length % 2 != 0) {
+            throw new IllegalArgumentException("Zone " + name + " needs at least 3 vertices, got " +
+                    coordinates.length + " coordinates");
+        }
+        this.name = name;
+        int vertices = coordinates.length / 2;
+        xs = new double[vertices];
+        ys = new double[vertices];
+        double lowX = Double.POSITIVE_INFINITY;
+        double lowY = Double.POSITIVE_INFINITY;
+        double highX = Double.NEGATIVE_INFINITY;
+        double highY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < vertices; i++) {
+            xs[i] = coordinates[2 * i];
+            ys[i] = coordinates[2 * i + 1];
+            lowX = Math.min(lowX, xs[i]);
+            lowY = Math.min(lowY, ys[i]);
+            highX = Math.max(highX, xs[i]);
+            highY = Math.max(highY, ys[i]);
+        }
+        minX = lowX;
+        minY = lowY;
+        maxX = highX;
+        maxY = highY;
+    }
+    /**
+     * Прямоугольная зона
+     * @param name название
+     * @param minX левая граница
+     * @param minY нижняя граница
+     * @param maxX правая граница
+     * @param maxY верхняя граница
+     * @return зона
+     */
+    public static Zone rectangle(String name, double minX, double minY, double maxX, double maxY) {
+        return new Zone(name, minX, minY, maxX, minY, maxX, maxY, minX, maxY);
+    }
+
+
+    /**
+     * Находится ли точка внутри зоны: луч из точки пересекает границу нечётное число раз
+     * @param x по OX
+     * @param y по OY
+     * @return {@code true}, если внутри
+     */
+    public boolean contains(double x, double y) {
+        if (x < minX || x > maxX || y < minY || y > maxY) {
+            return false;
+        }
+        boolean inside = false;
+        for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+            if ((ys[i] > y) != (ys[j] > y) &&
+                    x < (xs[j] - xs[i]) * (y - ys[i]) / (ys[j] - ys[i]) + xs[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    public String getName() {
+        return name;
+    }
+    double minX() {
+        return minX;
+    }
+    double minY() {
+        return minY;
+    }
+    double maxX() {
+        return maxX;
+    }
+    double maxY() {
+        return maxY;
+    }
+
+    @Override
+    public String toString() {
+        return "Zone{" +
+                "name='" + name + '\'' +
+                ", vertices=" + xs.length +
+                '}';
+    }
+}
@@ -0,0 +1,118 @@
+package tracking;
+
+import java.util.*;
+
+/**
+ * Время пребывания объектов в зонах и текущая заполненность зон.
+ * Счётчики обновляются по событиям входа и выхода, поэтому запрос
+ * читает готовые значения и не просматривает журналы перемещений.
+ * <p>
+ * Подключается подпиской: {@code service.subscribe(new ZoneStatistics())};
+ * у сервиса должны быть подключены зоны ({@link TrackingService#setGeofences(Geofences)}).
+ * Запросы можно выполнять из других потоков.
+ */
+public class ZoneStatistics implements TrackingListener {
+
+    /** Счётчики по зонам */
+    private final Map<Zone, Counters> zones;
+
+
+    public ZoneStatistics() {
+        zones = new HashMap<>();
+    }
+
+
+    //=========== События сервиса ===========//
+    @Override
+    public synchronized void zoneEntered(Tracked tracked, Zone zone, Date time) {
+        Counters counters = zones.computeIfAbsent(zone, key -> new Counters());
+        Stay stay = counters.stays.computeIfAbsent(tracked, key -> new Stay());
+        if (stay.enteredAt < 0) {
+            stay.enteredAt = time.getTime();
+            counters.occupants.add(tracked);
+        }
+    }
+    @Override
+    public synchronized void zoneExited(Tracked tracked, Zone zone, Date time) {
+        Counters counters = zones.get(zone);
+        Stay stay = counters == null ? null : counters.stays.get(tracked);
+        if (stay == null || stay.enteredAt < 0) {
+            return;
+        }
+        stay.total += Math.max(0, time.getTime() - stay.enteredAt);
+        stay.visits++;
+        stay.enteredAt = -1;
+        counters.occupants.remove(tracked);
+    }
+    //=======================================//
+
+
+    //=========== Запросы ===========//
+    /**
+     * Время пребывания объекта в зоне
+     * @param tracked объект
+     * @param zone зона
+     * @param at момент, до которого считается незавершённое пребывание
+     * @return время, мс
+     */
+    public synchronized long dwellMillis(Tracked tracked, Zone zone, Date at) {
+        Counters counters = zones.get(zone);
+        Stay stay = counters == null ? null : counters.stays.get(tracked);
+        if (stay == null) {
+            return 0;
+        }
+        return stay.enteredAt < 0 ? stay.total
+                : stay.total + Math.max(0, at.getTime() - stay.enteredAt);
+    }
+    /**
+     * Количество завершённых посещений зоны объектом
+     * @param tracked объект
+     * @param zone зона
+     * @return количество
+     */
+    public synchronized int visits(Tracked tracked, Zone zone) {
+        Counters counters = zones.get(zone);
+        Stay stay = counters == null ? null : counters.stays.get(tracked);
+        return stay == null ? 0 : stay.visits;
+    }
+    /**
+     * Количество объектов, находящихся в зоне
+     * @param zone зона
+     * @return количество
+     */
+    public synchronized int occupancy(Zone zone) {
+        Counters counters = zones.get(zone);
+        return counters == null ? 0 : counters.occupants.size();
+    }
+    /**
+     * Объекты, находящиеся в зоне
+     * @param zone зона
+     * @return объекты в порядке входа
+     */
+    public synchronized List<Tracked> occupants(Zone zone) {
+        Counters counters = zones.get(zone);
+        return counters == null ? Collections.emptyList() : new ArrayList<>(counters.occupants);
+    }
+    //===============================//
+
+
+    /** Счётчики одной зоны */
+    private static class Counters {
+
+        /** Пребывание каждого объекта, побывавшего в зоне */
+        private final Map<Tracked, Stay> stays = new HashMap<>();
+        /** Объекты в зоне */
+        private final Set<Tracked> occupants = new LinkedHashSet<>();
+    }
+
+    /** Пребывание одного объекта в одной зоне */
+    private static class Stay {
+
+        /** Время завершённых пребываний, мс */
+        private long total;
+        /** Количество завершённых пребываний */
+        private int visits;
+        /** Время входа, мс; {@code -1} - объекта нет в зоне */
+        private long enteredAt = -1;
+    }
+}
@@ -16,6 +16,13 @@ public class Shift {
         this.end = end;
     }
 
+    public Date getBegin() {
+        return begin;
+    }
+    public Date getEnd() {
+        return end;
+    }
+
     @Override
     public String toString() {
         return "Shift{" +
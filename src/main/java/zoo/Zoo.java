@@ -53,6 +53,9 @@ public class Zoo {
     public void set(TrackingService trackingService) {
         this.trackingService = trackingService;
     }
+    public TrackingService getTrackingService() {
+        return trackingService;
+    }
 
     /**
      * Добавление сотрудников
@@ -1,9 +1,14 @@
 package zoo.animal;
 
+import tracking.MovementJournal;
+import tracking.PositionRow;
+import tracking.SensorIds;
 import tracking.Tracked;
 import zoo.Position;
 import zoo.employee.Employee;
+import zoo.employee.WardTime;
 
+import java.time.LocalDate;
 import java.util.*;
 
 public class Animal implements Tracked {
@@ -12,12 +17,14 @@ public class Animal implements Tracked {
     private static int ID = 0;
 
 
-    public double x;
-    public double y;
+    /** Текущее местоположение */
+    private final PositionRow row = new PositionRow();
 
 
     /** Уникальный идентификатор */
     private final int id;
+    /** Идентификатор датчика */
+    private final int sensorId;
     /** Название животного */
     private final String name;
     /** Дата рождения */
@@ -27,7 +34,9 @@ public class Animal implements Tracked {
     /** Журнал болезней */
     private List<DiseaseNote> diseaseDiary;
     /** Журнал передвижений животного */
-    private List<Position> movements;
+    private final MovementJournal movements;
+    /** Время контактов с опекунами: всего и по дням; пополняется сотрудником */
+    private final WardTime wardTime;
 
 
     /**
@@ -36,12 +45,23 @@ public class Animal implements Tracked {
      * @param dateOfBirth дата рождения
      */
     public Animal(String name, Date dateOfBirth) {
+        this(name, dateOfBirth, SensorIds.next());
+    }
+    /**
+     * Животное
+     * @param name название
+     * @param dateOfBirth дата рождения
+     * @param sensorId идентификатор датчика
+     */
+    public Animal(String name, Date dateOfBirth, int sensorId) {
         id = ID++;
+        this.sensorId = SensorIds.reserve(sensorId);
         this.name = name;
         this.dateOfBirth = dateOfBirth;
         this.employees = new HashSet<>();
         this.diseaseDiary = new ArrayList<>();
-        this.movements = new ArrayList<>();
+        this.movements = new MovementJournal();
+        this.wardTime = new WardTime();
     }
 
 
@@ -53,25 +73,43 @@ public class Animal implements Tracked {
     public String getId() {
         return PREFIX.concat(Integer.toString(id));
     }
+    /**
+     * Реализация интерфейсного метода: получение идентификатора датчика
+     * @return id датчика
+     */
+    public int getSensorId() {
+        return sensorId;
+    }
+    /**
+     * Реализация интерфейсного метода: строка местоположения
+     * @return строка местоположения
+     */
+    public PositionRow getRow() {
+        return row;
+    }
+    /**
+     * Реализация интерфейсного метода: текущее местоположение по OX
+     * @return x
+     */
+    public double getX() {
+        return row.x();
+    }
+    /**
+     * Реализация интерфейсного метода: текущее местоположение по OY
+     * @return y
+     */
+    public double getY() {
+        return row.y();
+    }
     /**
      * Реализация интерфейсного метода обновления позиции
      * @param x по OX
      * @param y по OY
+     * @param time время измерения, нс
      */
-    public void updatePosition(double x, double y) {
-        this.x = x;
-        this.y = y;
-
-        Position position = new Position(x, y);
-
-        if (movements.size() == 0) {
-            movements.add(position);
-            return;
-        }
-        Position latestPosition = movements.get(movements.size() - 1);
-        if (position.x != latestPosition.x || position.y != latestPosition.y) {
-            movements.add(position);
-        }
+    public void updatePosition(double x, double y, long time) {
+        row.set(x, y, time);
+        movements.record(x, y, time);
     }
     //============================================================================//
 
@@ -113,9 +151,38 @@ public class Animal implements Tracked {
     public List<DiseaseNote> getDiseaseDiary() {
         return diseaseDiary;
     }
+    /**
+     * Журнал передвижений в виде списка только для чтения
+     * @return список местоположений
+     */
     public List<Position> getMovements() {
+        return movements.asList();
+    }
+    public MovementJournal getMovementJournal() {
         return movements;
     }
+    /**
+     * Суммарное время, проведённое с животным опекунами
+     * @return время, мс
+     */
+    public long getWardInteractionMillis() {
+        return wardTime.getMillis();
+    }
+    /**
+     * Время, проведённое с животным опекунами за день
+     * @param day день в часовом поясе системы
+     * @return время, мс
+     */
+    public long getWardInteractionMillis(LocalDate day) {
+        return wardTime.getMillis(day);
+    }
+    /**
+     * Учёт времени с опекунами; пополнить его может только сотрудник
+     * @return учёт времени
+     */
+    public WardTime getWardTime() {
+        return wardTime;
+    }
 
 
     @Override
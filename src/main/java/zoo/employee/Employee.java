@@ -1,11 +1,15 @@
 package zoo.employee;
 
+import tracking.MovementJournal;
+import tracking.PositionRow;
+import tracking.SensorIds;
 import tracking.Tracked;
 import zoo.Position;
 import zoo.Shift;
 import zoo.Zoo;
 import zoo.animal.Animal;
 
+import java.time.LocalDate;
 import java.util.*;
 
 public class Employee implements Tracked {
@@ -15,12 +19,14 @@ public class Employee implements Tracked {
     private static int ID = 0;
 
 
-    public double x;
-    public double y;
+    /** Текущее местоположение */
+    private final PositionRow row = new PositionRow();
 
 
     /** Уникальный идентификатор */
     private final int id;
+    /** Идентификатор датчика */
+    private final int sensorId;
     /** Имя сотрудника */
     private final String name;
     /** дата рождения */
@@ -28,11 +34,15 @@ public class Employee implements Tracked {
     /** Подопечные */
     private Set<Animal> animals;
     /** Журнал передвижений сотрудника */
-    private List<Position> movements;
+    private final MovementJournal movements;
     /** Журнал, фиксирующий длительности рабочих смен */
     private List<Shift> shifts;
     /** Журнал всех контактов с животными */
     private List<WardInteraction> wardInteractions;
+    /** Время контактов с подопечными: всего и по дням */
+    private final WardTime wardTime;
+    /** Время контактов с каждым подопечным, мс */
+    private final Map<Animal, Long> wardMillisByAnimal;
 
 
     /**
@@ -41,13 +51,25 @@ public class Employee implements Tracked {
      * @param dateOfBirth дата рождения
      */
     public Employee(String name, Date dateOfBirth) {
+        this(name, dateOfBirth, SensorIds.next());
+    }
+    /**
+     * Сотрудник
+     * @param name Имя
+     * @param dateOfBirth дата рождения
+     * @param sensorId идентификатор датчика
+     */
+    public Employee(String name, Date dateOfBirth, int sensorId) {
         id = ID++;
+        this.sensorId = SensorIds.reserve(sensorId);
         this.name = name;
         this.dateOfBirth = dateOfBirth;
         animals = new HashSet<>();
-        movements = new ArrayList<>();
+        movements = new MovementJournal();
         shifts = new ArrayList<>();
         wardInteractions = new ArrayList<>();
+        wardTime = new WardTime();
+        wardMillisByAnimal = new HashMap<>();
     }
 
 
@@ -56,18 +78,29 @@ public class Employee implements Tracked {
      * @return {@code true}, если находится
      */
     public boolean isInZoo() {
-        return !(Math.abs(x) > Zoo.size || Math.abs(y) > Zoo.size);
+        return !(Math.abs(getX()) > Zoo.size || Math.abs(getY()) > Zoo.size);
     }
 
 
     //================ Методы взаимодействия с подопечными ================//
 
     /**
-     * Добавление в журнал нового взаимодействия
-     * @param wardInteraction взаимодействие
+     * Добавление в журнал нового взаимодействия.
+     * Сразу обновляются суммы времени: общая, по подопечному и по дням -
+     * у сотрудника и у самого подопечного.
+     * @param wardInteraction завершившееся взаимодействие
      */
     public void add(WardInteraction wardInteraction) {
         wardInteractions.add(wardInteraction);
+
+        long begin = wardInteraction.getBegin().getTime();
+        long end = wardInteraction.getEnd().getTime();
+        if (end <= begin) {
+            return;
+        }
+        wardTime.add(begin, end);
+        wardMillisByAnimal.merge(wardInteraction.getAnimal(), end - begin, Long::sum);
+        wardInteraction.getAnimal().getWardTime().add(begin, end);
     }
     /**
      * Добавление подопечного
@@ -107,7 +140,10 @@ public class Employee implements Tracked {
      * @param end конец
      */
     public void setEnd(Date end) {
-
+        /* Сотрудник мог находиться в зоопарке с начала отслеживания */
+        if (shifts.isEmpty()) {
+            return;
+        }
         shifts.get(shifts.size() - 1).setEnd(end);
     }
     //========================================================================//
@@ -121,26 +157,43 @@ public class Employee implements Tracked {
     public String getId() {
         return PREFIX.concat(Integer.toString(id));
     }
+    /**
+     * Реализация интерфейсного метода: получение идентификатора датчика
+     * @return id датчика
+     */
+    public int getSensorId() {
+        return sensorId;
+    }
+    /**
+     * Реализация интерфейсного метода: строка местоположения
+     * @return строка местоположения
+     */
+    public PositionRow getRow() {
+        return row;
+    }
+    /**
+     * Реализация интерфейсного метода: текущее местоположение по OX
+     * @return x
+     */
+    public double getX() {
+        return row.x();
+    }
+    /**
+     * Реализация интерфейсного метода: текущее местоположение по OY
+     * @return y
+     */
+    public double getY() {
+        return row.y();
+    }
     /**
      * Реализация интерфейсного метода обновления позиции
      * @param x по OX
      * @param y по OY
+     * @param time время измерения, нс
      */
-    public void updatePosition(double x, double y) {
-
-        this.x = x;
-        this.y = y;
-
-        Position position = new Position(x, y);
-
-        if (movements.size() == 0) {
-            movements.add(position);
-            return;
-        }
-        Position latestPosition = movements.get(movements.size() - 1);
-        if (position.x != latestPosition.x || position.y != latestPosition.y) {
-            movements.add(position);
-        }
+    public void updatePosition(double x, double y, long time) {
+        row.set(x, y, time);
+        movements.record(x, y, time);
     }
     //============================================================================//
 
@@ -154,7 +207,14 @@ public class Employee implements Tracked {
     public Set<Animal> getAnimals() {
         return animals;
     }
+    /**
+     * Журнал передвижений в виде списка только для чтения
+     * @return список местоположений
+     */
     public List<Position> getMovements() {
+        return movements.asList();
+    }
+    public MovementJournal getMovementJournal() {
         return movements;
     }
     public List<Shift> getShifts() {
@@ -164,23 +224,41 @@ public class Employee implements Tracked {
         return wardInteractions;
     }
     /**
-     * Метод подсчитывает суммарное время, проведённое сотрудником с подопечными
+     * Суммарное время, проведённое сотрудником с подопечными
+     * @return время, мс
+     */
+    public long getWardInteractionMillis() {
+        return wardTime.getMillis();
+    }
+    /**
+     * Время, проведённое сотрудником с подопечным
+     * @param animal подопечный
+     * @return время, мс
+     */
+    public long getWardInteractionMillis(Animal animal) {
+        Long milliseconds = wardMillisByAnimal.get(animal);
+        return milliseconds == null ? 0 : milliseconds;
+    }
+    /**
+     * Время, проведённое сотрудником с подопечными за день
+     * @param day день в часовом поясе системы
+     * @return время, мс
+     */
+    public long getWardInteractionMillis(LocalDate day) {
+        return wardTime.getMillis(day);
+    }
+    /**
+     * Метод подсчитывает суммарное время, проведённое сотрудником с подопечными.
+     * Время в виде {@code Date} показывает только часы, минуты и секунды
+     * в пределах суток, полное время - {@link #getWardInteractionMillis()}.
      * @return время формата {@code Date}
      */
     public Date getWardInteractionTime() {
-        Date begin;
-        Date end;
-
         int hour;
         int minute;
         int second;
-        long milliseconds = 0;
+        long milliseconds = wardTime.getMillis();
 
-        for (WardInteraction wardInteraction : wardInteractions) {
-            begin = wardInteraction.getBegin();
-            end = wardInteraction.getEnd();
-            milliseconds += end.getTime() - begin.getTime();
-        }
         second = (int) (milliseconds / 1000);
         minute = second / 60;
         hour = minute / 60;
@@ -0,0 +1,58 @@
+package zoo.employee;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Время контактов сотрудников с подопечными: всего и по дням
+ * в часовом поясе системы. Такой учёт ведут и сотрудник, и животное;
+ * пополняет его только сотрудник при добавлении взаимодействия
+ * ({@link Employee#add(WardInteraction)}), снаружи он доступен для чтения.
+ */
+public class WardTime {
+
+    /** Суммарное время, мс */
+    private long millis;
+    /** Время по дням, мс */
+    private final Map<LocalDate, Long> millisByDay = new HashMap<>();
+
+
+    /**
+     * Учёт контакта: контакт через полночь делится между днями
+     * @param begin начало, мс
+     * @param end конец, мс
+     */
+    void add(long begin, long end) {
+        millis += end - begin;
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate day = Instant.ofEpochMilli(begin).atZone(zone).toLocalDate();
+        while (begin < end) {
+            LocalDate next = day.plusDays(1);
+            long to = Math.min(end, next.atStartOfDay(zone).toInstant().toEpochMilli());
+            millisByDay.merge(day, to - begin, Long::sum);
+            begin = to;
+            day = next;
+        }
+    }
+
+
+    /**
+     * Суммарное время
+     * @return время, мс
+     */
+    public long getMillis() {
+        return millis;
+    }
+    /**
+     * Время за день
+     * @param day день в часовом поясе системы
+     * @return время, мс
+     */
+    public long getMillis(LocalDate day) {
+        Long milliseconds = millisByDay.get(day);
+        return milliseconds == null ? 0 : milliseconds;
+    }
+}
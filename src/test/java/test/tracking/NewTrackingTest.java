@@ -4,20 +4,46 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import tracking.ContactGraph;
+import tracking.ContactScheduler;
+import tracking.EventLog;
+import tracking.EventTime;
+import tracking.Geofences;
+import tracking.Heatmap;
 import tracking.Interaction;
+import tracking.MovementJournal;
+import tracking.ReorderBuffer;
+import tracking.Rollups;
+import tracking.Snapshot;
+import tracking.SpaceTimeIndex;
+import tracking.Tracked;
+import tracking.TrackingListener;
 import tracking.TrackingService;
+import tracking.TrajectoryPyramid;
+import tracking.Zone;
+import tracking.ZoneStatistics;
 import zoo.IllegalAction;
 import zoo.Position;
 import zoo.Shift;
 import zoo.Zoo;
 import zoo.animal.Animal;
+import zoo.animal.DiseaseNote;
 import zoo.employee.Employee;
 
 import javax.security.auth.callback.LanguageCallback;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 @DisplayName("Тесты для нового задания")
 public class NewTrackingTest {
@@ -116,6 +142,949 @@ public class NewTrackingTest {
         Assertions.assertEquals(interactions.get(0).toString(), interaction.toString());
     }
 
+    @DisplayName("Одновременное завершение нескольких контактов")
+    @Test
+    public void severalInteractionsEndTest() {
+        Animal wolf = new Animal("волк", new Date());
+        trackingService.add(John, Jack, lion, wolf);
+
+        /* Все четверо рядом друг с другом */
+        John.updatePosition(0, 0);
+        Jack.updatePosition(1, 0);
+        lion.updatePosition(0, 1);
+        wolf.updatePosition(1, 1);
+        trackingService.defineInteractions();
+
+        /* Пара определяется независимо от порядка участников */
+        Assertions.assertEquals(5, trackingService.getCurrentInteractions().size());
+        Assertions.assertSame(trackingService.getCurrentInteraction(John, Jack),
+                trackingService.getCurrentInteraction(Jack, John));
+
+        /* Джон уходит от всех сразу */
+        John.updatePosition(-5, 0);
+        trackingService.CurrentOrInterruptedInteractions();
+
+        Assertions.assertEquals(2, trackingService.getInteractions().size());
+        Assertions.assertEquals(1, trackingService.getEmployeeInteractions().size());
+        Assertions.assertEquals(2, trackingService.getCurrentInteractions().size());
+        Assertions.assertNull(trackingService.getCurrentInteraction(John, lion));
+    }
+
+    @DisplayName("Снятие с отслеживания завершает контакты объекта и освобождает строку")
+    @Test
+    public void removeTest() {
+        List<Interaction> closed = new ArrayList<>();
+        trackingService.subscribe(new TrackingListener() {
+            @Override
+            public void contactClosed(Interaction interaction) {
+                closed.add(interaction);
+            }
+        });
+        /* Джон приходит в зоопарк - запись в журнале прихода */
+        John.updatePosition(Zoo.size + 1, 0);
+        trackingService.add(John, Jack, lion);
+        trackingService.updatePositions(new Position(0, 0), new Position(1, 0), new Position(0, 1));
+        Assertions.assertEquals(3, trackingService.getCurrentInteractions().size());
+        int lionRow = trackingService.getHandle(lion);
+
+        trackingService.remove(lion);
+        Assertions.assertEquals(2, closed.size());
+        Assertions.assertEquals(1, trackingService.getCurrentInteractions().size());
+        Assertions.assertNotNull(trackingService.getCurrentInteraction(John, Jack));
+        Assertions.assertEquals(closed, trackingService.getInteractions());
+        for (Interaction interaction : closed) {
+            Assertions.assertSame(lion, interaction.trackedB());
+            Assertions.assertNotNull(interaction.getEnd());
+        }
+
+        /* Строка льва достаётся новому объекту, строка Джона закреплена журналом прихода */
+        Animal wolf = new Animal("волк", new Date());
+        trackingService.add(wolf);
+        Assertions.assertEquals(lionRow, trackingService.getHandle(wolf));
+        int johnRow = trackingService.getHandle(John);
+        trackingService.remove(John);
+        Animal bear = new Animal("медведь", new Date());
+        trackingService.add(bear);
+        Assertions.assertTrue(johnRow != trackingService.getHandle(bear));
+        Assertions.assertSame(John, trackingService.getEmployeeActionJournal().employee(0));
+    }
+
+    @DisplayName("Инкрементальный режим: проверяются только переместившиеся объекты")
+    @Test
+    public void incrementalTest() {
+        trackingService.add(John, Jack);
+        trackingService.setIncremental(true);
+
+        trackingService.updatePositions(new Position(1, 1), new Position(2, 1));
+        Interaction interaction = trackingService.getCurrentInteraction(John, Jack);
+        Assertions.assertNotNull(interaction);
+
+        /* Никто не двигался - контакт тот же */
+        trackingService.updatePositions(new Position(1, 1), new Position(2, 1));
+        Assertions.assertSame(interaction, trackingService.getCurrentInteraction(John, Jack));
+
+        /* Разошлись */
+        trackingService.updatePositions(new Position(1, 1), new Position(9, 1));
+        Assertions.assertNull(trackingService.getCurrentInteraction(John, Jack));
+        Assertions.assertEquals(Collections.singletonList(interaction),
+                trackingService.getEmployeeInteractions());
+
+        /* Снова сошлись */
+        trackingService.updatePositions(new Position(8, 1), new Position(9, 1));
+        Assertions.assertNotNull(trackingService.getCurrentInteraction(John, Jack));
+    }
+
+    @DisplayName("Параллельный режим даёт те же контакты, что и однопоточный")
+    @Test
+    public void parallelTest() {
+        TrackingService parallel = new TrackingService();
+        parallel.setParallel(new ForkJoinPool(4));
+        List<Tracked> single = new ArrayList<>();
+        List<Tracked> multi = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            single.add(i % 3 == 0 ? new Employee("e" + i, new Date()) : new Animal("a" + i, new Date()));
+            multi.add(i % 3 == 0 ? new Employee("e" + i, new Date()) : new Animal("a" + i, new Date()));
+        }
+        trackingService.add(single.toArray(new Tracked[0]));
+        parallel.add(multi.toArray(new Tracked[0]));
+
+        Random random = new Random(42);
+        for (int tick = 0; tick < 20; tick++) {
+            for (int i = 0; i < single.size(); i++) {
+                double x = random.nextDouble() * 200 - 100;
+                double y = random.nextDouble() * 200 - 100;
+                single.get(i).updatePosition(x, y);
+                multi.get(i).updatePosition(x, y);
+            }
+            for (TrackingService service : Arrays.asList(trackingService, parallel)) {
+                service.CurrentOrInterruptedInteractions();
+                service.defineInteractions();
+            }
+            Assertions.assertEquals(describe(trackingService.getCurrentInteractions(), single),
+                    describe(parallel.getCurrentInteractions(), multi));
+            Assertions.assertEquals(describe(trackingService.getInteractions(), single),
+                    describe(parallel.getInteractions(), multi));
+            Assertions.assertEquals(describe(trackingService.getEmployeeInteractions(), single),
+                    describe(parallel.getEmployeeInteractions(), multi));
+        }
+        Assertions.assertFalse(trackingService.getInteractions().isEmpty());
+    }
+
+    @DisplayName("Параллельный режим с планировщиком в плотной толпе")
+    @Test
+    public void parallelCrowdTest() {
+        TrackingService parallel = new TrackingService();
+        parallel.setParallel(new ForkJoinPool(4));
+        ContactScheduler singleScheduler = new ContactScheduler(1.5);
+        ContactScheduler multiScheduler = new ContactScheduler(1.5);
+        trackingService.setContactScheduler(singleScheduler);
+        parallel.setContactScheduler(multiScheduler);
+        List<Tracked> single = new ArrayList<>();
+        List<Tracked> multi = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            single.add(i % 2 == 0 ? new Employee("e" + i, new Date()) : new Animal("a" + i, new Date()));
+            multi.add(i % 2 == 0 ? new Employee("e" + i, new Date()) : new Animal("a" + i, new Date()));
+        }
+        trackingService.add(single.toArray(new Tracked[0]));
+        parallel.add(multi.toArray(new Tracked[0]));
+
+        /* Почти все в одной ячейке участка, несколько объектов далеко */
+        Random random = new Random(8);
+        for (int tick = 0; tick < 10; tick++) {
+            for (int i = 0; i < single.size(); i++) {
+                double spread = i % 50 == 0 ? 5000 : 20;
+                double x = random.nextDouble() * spread;
+                double y = random.nextDouble() * spread;
+                single.get(i).updatePosition(x, y);
+                multi.get(i).updatePosition(x, y);
+            }
+            for (TrackingService service : Arrays.asList(trackingService, parallel)) {
+                service.CurrentOrInterruptedInteractions();
+                service.defineInteractions();
+            }
+            Assertions.assertEquals(describe(trackingService.getCurrentInteractions(), single),
+                    describe(parallel.getCurrentInteractions(), multi));
+        }
+        Assertions.assertEquals(singleScheduler.getSkipped(), multiScheduler.getSkipped());
+        Assertions.assertEquals(singleScheduler.getSearched(), multiScheduler.getSearched());
+    }
+
+    @DisplayName("Планировщик по скоростям находит те же контакты")
+    @Test
+    public void contactSchedulerTest() {
+        TrackingService scheduled = new TrackingService();
+        ContactScheduler scheduler = new ContactScheduler(1.5);
+        scheduler.setSpeed("лев", 2);
+        scheduled.setContactScheduler(scheduler);
+        List<Tracked> plain = new ArrayList<>();
+        List<Tracked> kinetic = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            plain.add(i % 3 == 0 ? new Employee("e" + i, new Date()) : new Animal("лев", new Date()));
+            kinetic.add(i % 3 == 0 ? new Employee("e" + i, new Date()) : new Animal("лев", new Date()));
+        }
+        trackingService.add(plain.toArray(new Tracked[0]));
+        scheduled.add(kinetic.toArray(new Tracked[0]));
+
+        Random random = new Random(5);
+        int count = plain.size();
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = random.nextDouble() * 150;
+            ys[i] = random.nextDouble() * 150;
+        }
+        /* Датчики присылают измерения 4 раза в секунду */
+        long period = TimeUnit.MILLISECONDS.toNanos(250);
+        long start = EventTime.now();
+        int[] plainIds = new int[count];
+        int[] kineticIds = new int[count];
+        long[] times = new long[count];
+        for (int tick = 0; tick < 200; tick++) {
+            for (int i = 0; i < count; i++) {
+                /* Шаг не быстрее наибольшей скорости; изредка датчик "прыгает" */
+                double step = random.nextDouble() * (i % 3 == 0 ? 1.5 : 2) / 4;
+                double angle = random.nextDouble() * 2 * Math.PI;
+                if (random.nextInt(500) == 0) {
+                    step = 40;
+                }
+                xs[i] = Math.max(0, Math.min(150, xs[i] + step * Math.cos(angle)));
+                ys[i] = Math.max(0, Math.min(150, ys[i] + step * Math.sin(angle)));
+                plainIds[i] = plain.get(i).getSensorId();
+                kineticIds[i] = kinetic.get(i).getSensorId();
+                times[i] = start + tick * period;
+            }
+            trackingService.updatePositions(plainIds, xs, ys, times, count);
+            scheduled.updatePositions(kineticIds, xs, ys, times, count);
+            /* Порядок обнаружения может отличаться, набор контактов - нет */
+            Assertions.assertEquals(sorted(trackingService.getCurrentInteractions(), plain),
+                    sorted(scheduled.getCurrentInteractions(), kinetic), "tick " + tick);
+        }
+        Assertions.assertEquals(sorted(trackingService.getInteractions(), plain),
+                sorted(scheduled.getInteractions(), kinetic));
+        Assertions.assertEquals(sorted(trackingService.getEmployeeInteractions(), plain),
+                sorted(scheduled.getEmployeeInteractions(), kinetic));
+        Assertions.assertFalse(trackingService.getInteractions().isEmpty());
+        Assertions.assertTrue(scheduler.getSkipped() > 0);
+        /* Радиус считается по тем же соседям, поэтому каждый пропуск экономит проверки */
+        Assertions.assertTrue(scheduled.getDistanceChecks() < trackingService.getDistanceChecks(),
+                scheduled.getDistanceChecks() + " checks with scheduler, " +
+                        trackingService.getDistanceChecks() + " without");
+    }
+
+    /** Описание контактов через номера участников без учёта порядка */
+    private static List<String> sorted(Collection<Interaction> interactions, List<Tracked> world) {
+        List<String> pairs = new ArrayList<>(Arrays.asList(describe(interactions, world).split(" ")));
+        Collections.sort(pairs);
+        return pairs;
+    }
+
+    /** Описание контактов через номера участников */
+    private static String describe(Collection<Interaction> interactions, List<Tracked> world) {
+        StringBuilder builder = new StringBuilder();
+        for (Interaction interaction : interactions) {
+            builder.append(world.indexOf(interaction.trackedA())).append('-')
+                    .append(world.indexOf(interaction.trackedB())).append(' ');
+        }
+        return builder.toString();
+    }
+
+    @DisplayName("Запоздавший пакет измерений со временем от датчиков")
+    @Test
+    public void lateBatchTest() {
+        trackingService.add(John, lion);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        long start = TimeUnit.MILLISECONDS.toNanos(
+                new GregorianCalendar(2020, Calendar.MAY, 1, 12, 0).getTimeInMillis());
+
+        int john = John.getSensorId();
+        int lionId = lion.getSensorId();
+        trackingService.updatePositions(
+                new int[] {john, lionId, john, john, lionId},
+                new double[] {0, 1, 30, 0, 2},
+                new double[] {0, 0, 0, 0, 0},
+                new long[] {start, start, start + 10 * second, start + 20 * second, start - 5 * second},
+                5);
+
+        /* Контакт длился с 12:00:00 до 12:00:10 по времени датчиков */
+        Interaction interaction = trackingService.getInteractions().get(0);
+        Assertions.assertEquals(EventTime.toDate(start), interaction.getBegin());
+        Assertions.assertEquals(EventTime.toDate(start + 10 * second), interaction.getEnd());
+        /* Второй контакт начался с возвращением Джона */
+        Assertions.assertEquals(EventTime.toDate(start + 20 * second),
+                trackingService.getCurrentInteraction(John, lion).getBegin());
+        Assertions.assertEquals(Collections.singletonList(
+                new Shift(EventTime.toDate(start + 20 * second))).toString(),
+                John.getShifts().toString());
+        Assertions.assertEquals(start + 20 * second, John.getMovementJournal().time(2));
+
+        /* Измерение льва старше уже полученного пропускается */
+        Assertions.assertEquals(1, trackingService.getStaleFixes());
+        Assertions.assertEquals(1, lion.getX(), 0);
+    }
+
+    @DisplayName("Упорядочивание измерений, пришедших не по порядку")
+    @Test
+    public void reorderTest() {
+        trackingService.add(John, lion);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        long start = TimeUnit.MILLISECONDS.toNanos(
+                new GregorianCalendar(2020, Calendar.MAY, 1, 12, 0).getTimeInMillis());
+        ReorderBuffer buffer = new ReorderBuffer(trackingService, 15 * second, 8);
+
+        int john = John.getSensorId();
+        int lionId = lion.getSensorId();
+        /* Уход Джона пришёл раньше, чем встреча со львом */
+        buffer.offer(john, 30, 0, start + 10 * second);
+        buffer.offer(john, 0, 0, start);
+        buffer.offer(lionId, 1, 0, start + second);
+        Assertions.assertEquals(3, buffer.getPending());
+        Assertions.assertTrue(trackingService.getInteractions().isEmpty());
+
+        /* Граница сдвинулась до 12:00:11 - накопленное до неё передано по порядку */
+        buffer.offer(lionId, 2, 0, start + 26 * second);
+        Assertions.assertEquals(1, buffer.getPending());
+        Interaction interaction = trackingService.getInteractions().get(0);
+        Assertions.assertEquals(EventTime.toDate(start + second), interaction.getBegin());
+        Assertions.assertEquals(EventTime.toDate(start + 10 * second), interaction.getEnd());
+
+        /* Измерение старше границы отбрасывается */
+        Assertions.assertFalse(buffer.offer(john, 0, 0, start + 11 * second));
+        Assertions.assertEquals(1, buffer.getLateFixes());
+
+        buffer.flush();
+        Assertions.assertEquals(0, buffer.getPending());
+        Assertions.assertEquals(2, lion.getX(), 0);
+        Assertions.assertEquals(start + 26 * second, buffer.getWatermark());
+    }
+
+    @DisplayName("Переполнение буфера упорядочивания")
+    @Test
+    public void reorderOverflowTest() {
+        trackingService.add(lion);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        ReorderBuffer buffer = new ReorderBuffer(trackingService, 60 * second, 2);
+
+        int lionId = lion.getSensorId();
+        buffer.offer(lionId, 1, 0, second);
+        buffer.offer(lionId, 2, 0, 2 * second);
+        /* Третье измерение вытесняет самое старое в сервис */
+        buffer.offer(lionId, 3, 0, 3 * second);
+        Assertions.assertEquals(1, buffer.getOverflows());
+        Assertions.assertEquals(2, buffer.getPending());
+        Assertions.assertEquals(1, lion.getX(), 0);
+        Assertions.assertEquals(second, buffer.getWatermark());
+
+        /* Измерение старше головы полного буфера опаздывает после вытеснения */
+        buffer.offer(lionId, 4, 0, 4 * second);
+        Assertions.assertFalse(buffer.offer(lionId, 0, 0, 2 * second + second / 2));
+        Assertions.assertEquals(1, buffer.getLateFixes());
+        Assertions.assertEquals(3, buffer.getOverflows());
+        Assertions.assertEquals(1, buffer.getPending());
+        Assertions.assertEquals(3, lion.getX(), 0);
+        Assertions.assertEquals(0, trackingService.getStaleFixes());
+    }
+
+    @DisplayName("Шаг границы упорядочивания и неизвестные датчики")
+    @Test
+    public void reorderStepTest() {
+        trackingService.add(John, Jack);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        ReorderBuffer buffer = new ReorderBuffer(trackingService, 0, 8, 10 * second);
+
+        buffer.offer(John.getSensorId(), 1, 0, second);
+        Assertions.assertEquals(0, buffer.getPending());
+        /* Граница сдвинулась бы меньше чем на шаг - измерения копятся */
+        buffer.offer(Jack.getSensorId(), 2, 0, 2 * second);
+        buffer.offer(John.getSensorId(), 3, 0, 3 * second);
+        Assertions.assertEquals(2, buffer.getPending());
+        Assertions.assertEquals(1, John.getX(), 0);
+
+        /* Буфер для неизвестного датчика не заводится */
+        Assertions.assertFalse(buffer.offer(-7, 0, 0, 4 * second));
+        Assertions.assertEquals(1, buffer.getUnknownFixes());
+
+        buffer.poll();
+        Assertions.assertEquals(0, buffer.getPending());
+        Assertions.assertEquals(3, John.getX(), 0);
+        Assertions.assertEquals(2, Jack.getX(), 0);
+        Assertions.assertEquals(3 * second, buffer.getWatermark());
+    }
+
+    @DisplayName("Восстановление из снимка и хвоста журнала событий")
+    @Test
+    public void snapshotTest() throws IOException {
+        Path directory = Files.createTempDirectory("zoo");
+        trackingService.setEventLog(new EventLog(directory.resolve("events"), 1024));
+        Zoo zoo = new Zoo("Московский");
+        zoo.set(trackingService);
+        John.updatePosition(1, 1);
+        Jack.updatePosition(20, 20);
+        zoo.add(John, Jack);
+        zoo.add(lion, John);
+
+        long second = TimeUnit.SECONDS.toNanos(1);
+        long start = EventTime.now() + second;
+        int john = John.getSensorId();
+        int jack = Jack.getSensorId();
+        int lionId = lion.getSensorId();
+        /* Тигр далеко от всех; его журнал длиннее двух блоков */
+        Animal tiger = new Animal("тигр", new Date());
+        for (int i = 0; i < 2500; i++) {
+            tiger.updatePosition(100 + i, 100, start - (2500 - i) * second);
+        }
+        trackingService.add(tiger);
+        /* Джон встретился со львом и ушёл */
+        trackingService.updatePositions(new int[] {john, jack, lionId},
+                new double[] {0, 20, 1}, new double[] {0, 0, 0},
+                new long[] {start, start, start}, 3);
+        trackingService.updatePosition(john, 30, 0, start + 10 * second);
+        Snapshot.write(zoo, directory.resolve("zoo.snapshot"));
+
+        /* После снимка Джек пришёл к льву и вывел его из зоопарка */
+        trackingService.updatePosition(jack, 2, 0, start + 20 * second);
+        trackingService.updatePositions(new int[] {lionId, jack},
+                new double[] {9, 10.5}, new double[] {0, 0},
+                new long[] {start + 30 * second, start + 30 * second}, 2);
+        trackingService.getEventLog().close();
+
+        Zoo restored = Snapshot.restore(directory.resolve("zoo.snapshot"),
+                new EventLog(directory.resolve("events"), 1024));
+        TrackingService service = restored.getTrackingService();
+        Employee john2 = (Employee) service.getTracked(john);
+        Employee jack2 = (Employee) service.getTracked(jack);
+        Animal lion2 = (Animal) service.getTracked(lionId);
+
+        Assertions.assertEquals("Московский", restored.getTitle());
+        Assertions.assertEquals(Arrays.asList(john2, jack2), restored.getEmployees());
+        Assertions.assertTrue(john2.isCare(lion2));
+        Assertions.assertEquals(9, lion2.getX(), 0);
+        Assertions.assertEquals(lion.getMovements().toString(), lion2.getMovements().toString());
+        MovementJournal tigerJournal = service.getTracked(tiger.getSensorId()).getMovementJournal();
+        Assertions.assertEquals(tiger.getMovements().toString(), tigerJournal.asList().toString());
+        Assertions.assertEquals(2048, tigerJournal.getSealedSize());
+        Assertions.assertEquals(start - second, tigerJournal.time(tigerJournal.indexAt(start)));
+        Assertions.assertEquals(sensors(trackingService.getInteractions()),
+                sensors(service.getInteractions()));
+        Assertions.assertEquals(sensors(trackingService.getCurrentInteractions()),
+                sensors(service.getCurrentInteractions()));
+        Assertions.assertEquals(John.getWardInteractions().size(),
+                john2.getWardInteractions().size());
+        Assertions.assertEquals(Jack.getShifts().toString(), jack2.getShifts().toString());
+        Assertions.assertEquals(3, service.getEmployeeActions().size());
+        Assertions.assertEquals(1, service.getIllegalActionsNumber(jack2));
+
+        /* Восстановленный сервис продолжает работу как исходный */
+        service.updatePosition(jack, 10.5, 1, start + 40 * second);
+        Assertions.assertEquals(1, service.getIllegalActions().size());
+        service.updatePosition(lionId, 30, 30, start + 50 * second);
+        Assertions.assertTrue(service.getCurrentInteractions().isEmpty());
+        Assertions.assertEquals(2, service.getInteractions().size());
+        service.getEventLog().close();
+    }
+
+    @DisplayName("Подписчик получает события на том же такте")
+    @Test
+    public void listenerTest() {
+        John.updatePosition(1, 1);
+        trackingService.add(John, lion);
+        List<String> events = new ArrayList<>();
+        trackingService.subscribe(new TrackingListener() {
+            @Override
+            public void contactOpened(Interaction interaction) {
+                events.add("opened " + interaction.trackedB().getId());
+            }
+            @Override
+            public void contactClosed(Interaction interaction) {
+                events.add("closed " + interaction.trackedB().getId());
+            }
+            @Override
+            public void shiftBegin(Employee employee, Date begin) {
+                events.add("begin " + employee.getId());
+            }
+            @Override
+            public void shiftEnd(Employee employee, Date end) {
+                events.add("end " + employee.getId());
+            }
+            @Override
+            public void illegalAction(IllegalAction illegalAction) {
+                events.add("illegal " + illegalAction.getAnimal().getId());
+            }
+        });
+
+        trackingService.updatePositions(new Position(0, 0), new Position(1, 0));
+        Assertions.assertEquals(Collections.singletonList("opened " + lion.getId()), events);
+
+        /* Джон выводит льва из зоопарка */
+        trackingService.updatePositions(new Position(10.5, 0), new Position(9, 0));
+        Assertions.assertEquals(Arrays.asList("opened " + lion.getId(),
+                "end " + John.getId(), "illegal " + lion.getId()), events);
+
+        trackingService.updatePositions(new Position(30, 0), new Position(9, 0));
+        trackingService.updatePositions(new Position(0, 0), new Position(9, 0));
+        Assertions.assertEquals(Arrays.asList("opened " + lion.getId(),
+                "end " + John.getId(), "illegal " + lion.getId(),
+                "closed " + lion.getId(), "begin " + John.getId()), events);
+    }
+
+    @DisplayName("Исключение подписчика не прерывает рассылку и такт")
+    @Test
+    public void failingListenerTest() {
+        trackingService.add(John, lion);
+        List<String> events = new ArrayList<>();
+        trackingService.subscribe(new TrackingListener() {
+            @Override
+            public void contactOpened(Interaction interaction) {
+                throw new IllegalStateException("listener");
+            }
+        });
+        trackingService.subscribe(new TrackingListener() {
+            @Override
+            public void contactOpened(Interaction interaction) {
+                events.add("opened " + interaction.trackedB().getId());
+            }
+            @Override
+            public void contactClosed(Interaction interaction) {
+                events.add("closed " + interaction.trackedB().getId());
+            }
+        });
+
+        trackingService.updatePositions(new Position(0, 0), new Position(1, 0));
+        Assertions.assertEquals(Collections.singletonList("opened " + lion.getId()), events);
+        Assertions.assertEquals(1, trackingService.getListenerFailures());
+        Assertions.assertEquals("listener", trackingService.getLastListenerFailure().getMessage());
+
+        /* Событие не рассылается повторно, следующий такт проходит как обычно */
+        trackingService.updatePositions(new Position(9, 0), new Position(1, 0));
+        Assertions.assertEquals(Arrays.asList("opened " + lion.getId(), "closed " + lion.getId()), events);
+        Assertions.assertEquals(1, trackingService.getListenerFailures());
+    }
+
+    @DisplayName("Одно нарушение на контакт и счётчик нарушений сотрудника")
+    @Test
+    public void illegalActionsNumberTest() {
+        trackingService.add(John, Jack, lion);
+
+        /* Джон долго стоит со львом за оградой - нарушение одно */
+        for (int i = 0; i < 5; i++) {
+            trackingService.updatePositions(new Position(11, 0),
+                    new Position(-20, 0), new Position(10.5, 0));
+        }
+        Assertions.assertEquals(1, trackingService.getIllegalActions().size());
+        Assertions.assertEquals(1, trackingService.getIllegalActionsNumber(John));
+        Assertions.assertEquals(0, trackingService.getIllegalActionsNumber(Jack));
+
+        /* Контакт прервался и возобновился - это новое нарушение */
+        trackingService.updatePositions(new Position(20, 0),
+                new Position(-20, 0), new Position(10.5, 0));
+        for (int i = 0; i < 2; i++) {
+            trackingService.updatePositions(new Position(11, 0),
+                    new Position(-20, 0), new Position(10.5, 0));
+        }
+        Assertions.assertEquals(2, trackingService.getIllegalActionsNumber(John));
+    }
+
+    @DisplayName("Сводки по часам и дням для отчётов")
+    @Test
+    public void rollupsTest() {
+        Rollups rollups = new Rollups();
+        trackingService.subscribe(rollups);
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        long start = TimeUnit.MILLISECONDS.toNanos(
+                new GregorianCalendar(2020, Calendar.MAY, 1, 23, 30).getTimeInMillis());
+        John.updatePosition(20, 20, start - minute);
+        trackingService.add(John, lion);
+
+        int john = John.getSensorId();
+        int lionId = lion.getSensorId();
+        /* Ночная смена Джона с 23:30 до 00:30, всё время рядом со львом */
+        trackingService.updatePositions(new int[] {john, lionId},
+                new double[] {0, 1}, new double[] {0, 0}, new long[] {start, start}, 2);
+        trackingService.updatePosition(john, 30, 0, start + 60 * minute);
+
+        LocalDate first = LocalDate.of(2020, 5, 1);
+        LocalDate second = LocalDate.of(2020, 5, 2);
+        long halfHour = TimeUnit.MINUTES.toMillis(30);
+        Assertions.assertEquals(halfHour, rollups.total(John, Rollups.Metric.SHIFT, first, first));
+        Assertions.assertEquals(halfHour, rollups.total(John, Rollups.Metric.SHIFT, second, second));
+        Assertions.assertEquals(2 * halfHour,
+                rollups.total(lion, Rollups.Metric.CONTACT, first, second.plusDays(30)));
+        Assertions.assertEquals(halfHour, rollups.hour(John, Rollups.Metric.CONTACT,
+                EventTime.toDate(start + 15 * minute)));
+        Assertions.assertEquals(0, rollups.total(John, Rollups.Metric.ILLEGAL, first, second));
+        Assertions.assertEquals(0, rollups.pairTotal(John, Jack, first, second));
+    }
+
+    @DisplayName("Часы сводок считаются в том же поясе, что и сутки")
+    @Test
+    public void rollupsZoneTest() {
+        /* Смещение +5:30: часы по UTC не совпали бы с местными */
+        ZoneId kolkata = ZoneId.of("Asia/Kolkata");
+        Rollups rollups = new Rollups(kolkata);
+        ZonedDateTime begin = ZonedDateTime.of(2020, 5, 1, 23, 0, 0, 0, kolkata);
+        Interaction interaction = new Interaction(John, lion, Date.from(begin.toInstant()));
+        interaction.setEnd(Date.from(begin.plusHours(1).toInstant()));
+        rollups.contactClosed(interaction);
+
+        long hour = TimeUnit.HOURS.toMillis(1);
+        Assertions.assertEquals(hour, rollups.hour(lion, Rollups.Metric.CONTACT,
+                Date.from(begin.plusMinutes(15).toInstant())));
+        Assertions.assertEquals(hour, rollups.hour(lion, Rollups.Metric.CONTACT,
+                Date.from(begin.plusMinutes(45).toInstant())));
+        Assertions.assertEquals(hour, rollups.total(lion, Rollups.Metric.CONTACT,
+                LocalDate.of(2020, 5, 1), LocalDate.of(2020, 5, 1)));
+        Assertions.assertEquals(0, rollups.total(lion, Rollups.Metric.CONTACT,
+                LocalDate.of(2020, 5, 2), LocalDate.of(2020, 5, 2)));
+    }
+
+    @DisplayName("Кто был рядом с животным в заданный промежуток")
+    @Test
+    public void spaceTimeIndexTest() {
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        long start = TimeUnit.MILLISECONDS.toNanos(
+                new GregorianCalendar(2020, Calendar.MAY, 1, 14, 0).getTimeInMillis());
+        John.updatePosition(200, 200, start - minute);
+        Jack.updatePosition(300, 300, start - minute);
+        lion.updatePosition(0, 0, start - minute);
+        trackingService.add(John, Jack, lion);
+        SpaceTimeIndex index = new SpaceTimeIndex();
+        index.add(John, Jack, lion);
+
+        /* Джон подходит ко льву в 14:00, Джек - в 14:20 */
+        trackingService.updatePosition(John.getSensorId(), 3, 0, start);
+        trackingService.updatePosition(John.getSensorId(), 200, 200, start + 10 * minute);
+        trackingService.updatePosition(Jack.getSensorId(), 4, 0, start + 20 * minute);
+        trackingService.updatePosition(Jack.getSensorId(), 300, 300, start + 30 * minute);
+
+        Assertions.assertEquals(Collections.singletonList(John),
+                index.near(lion, 10, start, start + 5 * minute));
+        Assertions.assertEquals(Collections.singletonList(Jack),
+                index.near(lion, 10, start + 15 * minute, start + 25 * minute));
+        Assertions.assertEquals(Arrays.asList(John, Jack),
+                index.near(lion, 10, start - minute, start + 40 * minute));
+        Assertions.assertEquals(Collections.singletonList(lion),
+                index.range(0, 0, 10, start + 11 * minute, start + 19 * minute));
+        Assertions.assertEquals(Arrays.asList(lion, John),
+                index.nearest(0, 0, 2, start, start + 40 * minute));
+        Assertions.assertEquals(Collections.singletonList(John),
+                index.nearest(210, 210, 1, start + 12 * minute, start + 15 * minute));
+    }
+
+    @DisplayName("Поиск ближайших кольцами совпадает с полным перебором")
+    @Test
+    public void spaceTimeIndexNearestTest() {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        Random random = new Random(17);
+        List<Animal> animals = new ArrayList<>();
+        SpaceTimeIndex index = new SpaceTimeIndex();
+        for (int i = 0; i < 300; i++) {
+            Animal animal = new Animal("зверь " + i, new Date());
+            /* Половина стоит плотной кучей, остальные разбросаны, один далеко */
+            double spread = i % 2 == 0 ? 30 : 1000;
+            for (int j = 0; j < 3; j++) {
+                animal.updatePosition(random.nextDouble() * spread, random.nextDouble() * spread, j * second);
+            }
+            animals.add(animal);
+        }
+        animals.get(299).updatePosition(1e6, 1e6, 3 * second);
+        index.add(animals.toArray(new Tracked[0]));
+
+        for (int query = 0; query < 50; query++) {
+            double x = random.nextDouble() * 1200 - 100;
+            double y = random.nextDouble() * 1200 - 100;
+            int k = 1 + random.nextInt(20);
+            List<Double> expected = new ArrayList<>();
+            for (Animal animal : animals) {
+                MovementJournal journal = animal.getMovementJournal();
+                double best = Double.POSITIVE_INFINITY;
+                for (int j = 0; j < journal.size(); j++) {
+                    best = Math.min(best, Math.hypot(journal.x(j) - x, journal.y(j) - y));
+                }
+                expected.add(best);
+            }
+            Collections.sort(expected);
+            List<Tracked> nearest = index.nearest(x, y, k, 0, 3 * second);
+            Assertions.assertEquals(k, nearest.size());
+            for (int i = 0; i < k; i++) {
+                MovementJournal journal = nearest.get(i).getMovementJournal();
+                double best = Double.POSITIVE_INFINITY;
+                for (int j = 0; j < journal.size(); j++) {
+                    best = Math.min(best, Math.hypot(journal.x(j) - x, journal.y(j) - y));
+                }
+                Assertions.assertEquals(expected.get(i), best, 1e-9);
+            }
+        }
+        /* Объектов меньше k - возвращаются все */
+        Assertions.assertEquals(300, index.nearest(0, 0, 1000, 0, 3 * second).size());
+    }
+
+    @DisplayName("Индекс работает только в потоке, создавшем его")
+    @Test
+    public void spaceTimeIndexThreadTest() throws InterruptedException {
+        SpaceTimeIndex index = new SpaceTimeIndex();
+        lion.updatePosition(0, 0, 0);
+        index.add(lion);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread investigation = new Thread(() -> {
+            try {
+                index.range(0, 0, 10, 0, 1);
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        investigation.start();
+        investigation.join();
+        Assertions.assertTrue(failure.get() instanceof IllegalStateException);
+        Assertions.assertEquals(Collections.singletonList(lion), index.range(0, 0, 10, 0, 1));
+    }
+
+    @DisplayName("Цепочки заражения учитывают порядок контактов")
+    @Test
+    public void contactTracingTest() {
+        Animal wolf = new Animal("волк", new Date());
+        Employee Jane = new Employee("Джейн", calendar.getTime());
+        long hour = TimeUnit.HOURS.toMillis(1);
+        long start = new GregorianCalendar(2020, Calendar.MAY, 1, 8, 0).getTimeInMillis();
+        ContactGraph graph = new ContactGraph();
+
+        /* Волк встречался с Джеком до того, как Джек заразился */
+        graph.add(interaction(Jack, wolf, start - hour, start));
+        graph.add(interaction(John, lion, start + hour, start + 2 * hour));
+        graph.add(interaction(John, Jack, start + 3 * hour, start + 4 * hour));
+        /* Контакт Джека и Джейн ещё продолжается */
+        graph.add(interaction(Jack, Jane, start + 5 * hour, 0));
+
+        DiseaseNote note = new DiseaseNote("бешенство", new Date(start), "");
+        Map<Tracked, Date> exposed = graph.trace(lion, note, new Date(start + 10 * hour));
+        Assertions.assertEquals(Arrays.asList(John, Jack, Jane), new ArrayList<>(exposed.keySet()));
+        Assertions.assertEquals(new Date(start + hour), exposed.get(John));
+        Assertions.assertEquals(new Date(start + 3 * hour), exposed.get(Jack));
+        Assertions.assertEquals(new Date(start + 5 * hour), exposed.get(Jane));
+
+        /* До встречи Джека с Джейн цепочка не дотягивается */
+        Assertions.assertEquals(Arrays.asList(John, Jack), new ArrayList<>(
+                graph.trace(lion, new Date(start), new Date(start + 4 * hour)).keySet()));
+        /* Лев заболел после встречи с Джоном */
+        Assertions.assertTrue(graph.trace(lion, new Date(start + 3 * hour),
+                new Date(start + 10 * hour)).isEmpty());
+    }
+
+    private static Interaction interaction(Tracked a, Tracked b, long begin, long end) {
+        Interaction interaction = new Interaction(a, b, new Date(begin));
+        if (end != 0) {
+            interaction.setEnd(new Date(end));
+        }
+        return interaction;
+    }
+
+    @DisplayName("Вход и выход из зон")
+    @Test
+    public void geofencesTest() {
+        /* Сетка вольеров 10 x 10 и треугольная служебная зона поверх них */
+        List<Zone> zones = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            zones.add(Zone.rectangle("вольер " + i, i % 10 * 10, i / 10 * 10,
+                    i % 10 * 10 + 10, i / 10 * 10 + 10));
+        }
+        Zone staff = new Zone("служебная", 0, 0, 30, 0, 0, 30);
+        zones.add(staff);
+        Geofences geofences = new Geofences(zones.toArray(new Zone[0]));
+
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            double x = random.nextDouble() * 120 - 10;
+            double y = random.nextDouble() * 120 - 10;
+            List<Zone> expected = new ArrayList<>();
+            for (Zone zone : zones) {
+                if (zone.contains(x, y)) {
+                    expected.add(zone);
+                }
+            }
+            Assertions.assertEquals(expected, geofences.zonesAt(x, y));
+        }
+
+        List<String> events = new ArrayList<>();
+        trackingService.subscribe(new TrackingListener() {
+            @Override
+            public void zoneEntered(Tracked tracked, Zone zone, Date time) {
+                events.add(tracked.getId() + " + " + zone.getName());
+            }
+            @Override
+            public void zoneExited(Tracked tracked, Zone zone, Date time) {
+                events.add(tracked.getId() + " - " + zone.getName());
+            }
+        });
+        trackingService.setGeofences(geofences);
+        trackingService.add(lion);
+        int id = lion.getSensorId();
+        long now = EventTime.now();
+        trackingService.updatePosition(id, 5, 5, now + 1);
+        trackingService.updatePosition(id, 6, 6, now + 2);
+        trackingService.updatePosition(id, 15, 12, now + 3);
+        trackingService.updatePosition(id, 200, 200, now + 4);
+
+        String name = lion.getId();
+        Assertions.assertEquals(Arrays.asList(
+                name + " + вольер 0", name + " + служебная",
+                name + " - вольер 0", name + " + вольер 11",
+                name + " - вольер 11", name + " - служебная"), events);
+        Assertions.assertTrue(geofences.zonesOf(lion).isEmpty());
+    }
+
+    @DisplayName("Время в вольере и заполненность вольера")
+    @Test
+    public void zoneStatisticsTest() {
+        Zone enclosure = Zone.rectangle("вольер", 0, 0, 10, 10);
+        ZoneStatistics statistics = new ZoneStatistics();
+        trackingService.setGeofences(new Geofences(enclosure));
+        trackingService.subscribe(statistics);
+        Animal wolf = new Animal("волк", new Date());
+        trackingService.add(lion, wolf);
+
+        long minute = TimeUnit.MINUTES.toNanos(1);
+        long start = EventTime.now();
+        trackingService.updatePositions(new int[] {lion.getSensorId(), wolf.getSensorId()},
+                new double[] {5, 6}, new double[] {5, 6}, new long[] {start, start}, 2);
+        Assertions.assertEquals(Arrays.asList(lion, wolf), statistics.occupants(enclosure));
+
+        trackingService.updatePosition(lion.getSensorId(), 50, 50, start + 10 * minute);
+        trackingService.updatePosition(lion.getSensorId(), 1, 1, start + 20 * minute);
+        Assertions.assertEquals(1, statistics.visits(lion, enclosure));
+        Assertions.assertEquals(TimeUnit.MINUTES.toMillis(15), statistics.dwellMillis(lion, enclosure,
+                EventTime.toDate(start + 25 * minute)));
+
+        /* Снятый с отслеживания объект покидает вольер */
+        trackingService.remove(wolf);
+        Assertions.assertEquals(1, statistics.occupancy(enclosure));
+        Assertions.assertEquals(1, statistics.visits(wolf, enclosure));
+    }
+
+    @DisplayName("Тепловая карта по слоям и часам")
+    @Test
+    public void heatmapTest() {
+        Heatmap heatmap = new Heatmap(0, 0, 10, 10, 10);
+        trackingService.setHeatmap(heatmap);
+        Animal lioness = new Animal("лев", new Date());
+        trackingService.add(John, lion, lioness);
+
+        long hour = TimeUnit.HOURS.toNanos(1);
+        long start = (EventTime.now() / hour + 1) * hour;
+        trackingService.updatePosition(lion.getSensorId(), 5, 5, start);
+        trackingService.updatePosition(lioness.getSensorId(), 6, 6, start);
+        trackingService.updatePosition(John.getSensorId(), 15, 5, start + 1);
+        trackingService.updatePosition(John.getSensorId(), -5, 5, start + 2);
+
+        int[] all = heatmap.window(Heatmap.ALL);
+        Assertions.assertEquals(2, all[0]);
+        Assertions.assertEquals(1, all[1]);
+        Assertions.assertEquals(2, heatmap.window(Heatmap.layer(lion))[0]);
+        Assertions.assertEquals(1, heatmap.window(Heatmap.layer(John))[1]);
+        Assertions.assertEquals(1, heatmap.getOutside());
+
+        /* Через сутки первая корзина выходит из окна, счётчик за всё время остаётся */
+        trackingService.updatePosition(lion.getSensorId(), 95, 95, start + 24 * hour);
+        all = heatmap.window(Heatmap.ALL);
+        Assertions.assertEquals(0, all[0]);
+        Assertions.assertEquals(1, all[99]);
+        Assertions.assertEquals(2, heatmap.total(Heatmap.ALL)[0]);
+        Assertions.assertEquals(1, heatmap.bucket(Heatmap.layer(lion),
+                EventTime.toDate(start + 24 * hour))[99]);
+    }
+
+    @DisplayName("Путь животного на разных масштабах карты")
+    @Test
+    public void trajectoryPyramidTest() {
+        trackingService.add(lion);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        long start = EventTime.now();
+        /* Лев ходит по синусоиде вдоль вольера */
+        for (int i = 0; i < 2000; i++) {
+            trackingService.updatePosition(lion.getSensorId(),
+                    i * 0.5, 20 * Math.sin(i / 100.0), start + i * second);
+        }
+        TrajectoryPyramid pyramid = new TrajectoryPyramid(lion);
+        trackingService.addPyramid(pyramid);
+        for (int level = 1; level < TrajectoryPyramid.LEVELS; level++) {
+            Assertions.assertTrue(pyramid.size(level) <= pyramid.size(level - 1));
+        }
+        Assertions.assertTrue(pyramid.size(TrajectoryPyramid.LEVELS - 1) < 20);
+
+        long end = start + 1999 * second;
+        Assertions.assertEquals(2000, pyramid.path(start, end, 0.5, 5000).size());
+        MovementJournal coarse = pyramid.path(start, end, 4, 50);
+        Assertions.assertTrue(coarse.size() <= 50);
+        Assertions.assertEquals(start, coarse.time(0));
+        Assertions.assertEquals(end, coarse.time(coarse.size() - 1));
+        /* Каждый уровень отклоняется от измерений не больше своего допуска */
+        for (int level = 1; level < TrajectoryPyramid.LEVELS; level++) {
+            MovementJournal path = pyramid.path(start, end, pyramid.tolerance(level), Integer.MAX_VALUE);
+            for (int i = 0; i < 2000; i++) {
+                long time = start + i * second;
+                int index = path.indexAt(time);
+                double x = path.x(index);
+                double y = path.y(index);
+                if (index + 1 < path.size()) {
+                    double ratio = (double) (time - path.time(index)) /
+                            (path.time(index + 1) - path.time(index));
+                    x += (path.x(index + 1) - x) * ratio;
+                    y += (path.y(index + 1) - y) * ratio;
+                }
+                Assertions.assertTrue(Math.hypot(x - i * 0.5, y - 20 * Math.sin(i / 100.0)) <=
+                        pyramid.tolerance(level) + 1e-9, "level " + level + ", point " + i);
+            }
+        }
+
+        /* Новые измерения подхватываются без перестройки */
+        trackingService.updatePosition(lion.getSensorId(), 1000, 0, end + second);
+        MovementJournal tail = pyramid.path(end, end + second, 4, 50);
+        Assertions.assertEquals(1000, tail.x(tail.size() - 1), 0);
+    }
+
+    @DisplayName("Путь запрашивается из другого потока во время измерений")
+    @Test
+    public void trajectoryPyramidThreadTest() throws InterruptedException {
+        trackingService.add(lion);
+        TrajectoryPyramid pyramid = new TrajectoryPyramid(lion);
+        trackingService.addPyramid(pyramid);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        long start = EventTime.now();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread map = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    MovementJournal path = pyramid.path(start, start + 5000 * second, 4, 50);
+                    for (int i = 1; i < path.size(); i++) {
+                        Assertions.assertTrue(path.time(i) > path.time(i - 1));
+                    }
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        map.start();
+        for (int i = 0; i < 5000; i++) {
+            trackingService.updatePosition(lion.getSensorId(),
+                    i * 0.5, 20 * Math.sin(i / 100.0), start + i * second);
+        }
+        done.set(true);
+        map.join();
+        Assertions.assertNull(failure.get());
+        MovementJournal path = pyramid.path(start, start + 5000 * second, 0, 10000);
+        Assertions.assertEquals(5000, path.size());
+    }
+
+    /** Описание контактов через датчики участников и время */
+    private static String sensors(Collection<Interaction> interactions) {
+        StringBuilder builder = new StringBuilder();
+        for (Interaction interaction : interactions) {
+            builder.append(interaction.trackedA().getSensorId()).append('-')
+                    .append(interaction.trackedB().getSensorId()).append(' ')
+                    .append(interaction.getBegin()).append(' ')
+                    .append(interaction.getEnd()).append("; ");
+        }
+        return builder.toString();
+    }
+
     @DisplayName("Подсчёт времени, проведённого сотрудником с подопечными")
     @Test
     public void EmployeeWardTest() throws InterruptedException {
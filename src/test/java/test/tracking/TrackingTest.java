@@ -4,12 +4,22 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import tracking.EmployeeAction;
+import tracking.EmployeeActionJournal;
+import tracking.EventLog;
+import tracking.EventTime;
 import tracking.Interaction;
+import tracking.MovementJournal;
+import tracking.PositionTable;
 import tracking.TrackingService;
 import zoo.Position;
 import zoo.animal.Animal;
 import zoo.employee.Employee;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -52,6 +62,178 @@ public class TrackingTest {
     }
 
 
+    @DisplayName("Журнал перемещений: доступ по номеру и по времени")
+    @Test
+    public void MovementJournalTest() {
+
+        MovementJournal journal = new MovementJournal();
+        for (int i = 0; i < 3000; i++) {
+            journal.append(i, -i, i * 10L);
+        }
+        /* Повтор последней точки не записывается */
+        Assertions.assertFalse(journal.record(2999, -2999, 30000));
+        /* Точка старше последней не записывается */
+        Assertions.assertFalse(journal.record(5, 5, 29985));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> journal.append(5, 5, 29985));
+
+        Assertions.assertEquals(3000, journal.size());
+        Assertions.assertEquals(1500, journal.x(1500), 0);
+        Assertions.assertEquals(-2048, journal.y(2048), 0);
+        Assertions.assertEquals(1024, journal.indexAt(10245));
+        Assertions.assertEquals(-1, journal.indexAt(-1));
+
+        MovementJournal.Cursor cursor = journal.cursorAt(10241);
+        Assertions.assertTrue(cursor.next());
+        Assertions.assertEquals(1025, cursor.index());
+        Assertions.assertEquals(10250, cursor.time());
+
+        Assertions.assertEquals(new Position(7, -7).toString(),
+                journal.asList().get(7).toString());
+
+        /* Первые два блока запечатаны и сжаты, значения не искажаются */
+        Assertions.assertEquals(2048, journal.getSealedSize());
+        Assertions.assertTrue(journal.getSealedBytes() < 2048 * 24 / 4);
+        for (int i = 0; i < 3000; i++) {
+            Assertions.assertEquals(i, journal.x(i), 0);
+            Assertions.assertEquals(-i, journal.y(i), 0);
+            Assertions.assertEquals(i * 10L, journal.time(i));
+        }
+        /* Чтение вперемешку из двух запечатанных блоков */
+        for (int i = 0; i < 1024; i++) {
+            Assertions.assertEquals(i, journal.x(i), 0);
+            Assertions.assertEquals(1024 + i, journal.x(1024 + i), 0);
+        }
+
+        /* Прямоугольники блоков проверяются без распаковки */
+        Assertions.assertTrue(journal.visits(1500, -1600, 1600, -1500, 0, 30000));
+        Assertions.assertFalse(journal.visits(5000, -5100, 5100, -5000, 0, 30000));
+        Assertions.assertFalse(journal.visits(100, -200, 200, -100, 15000, 20000));
+    }
+
+    @DisplayName("Сжатие журнала перемещений с допуском")
+    @Test
+    public void MovementJournalToleranceTest() {
+
+        MovementJournal journal = new MovementJournal();
+        journal.setTolerance(1);
+        /* 100 секунд вдоль OX, затем 50 секунд вдоль OY; дрожание датчика до 0.3 м */
+        double[] xs = new double[151];
+        double[] ys = new double[151];
+        long second = 1_000_000_000L;
+        for (int i = 0; i <= 150; i++) {
+            double jitter = (i % 3 - 1) * 0.3;
+            xs[i] = i <= 100 ? i : 100 + jitter;
+            ys[i] = i <= 100 ? jitter : i - 100;
+            journal.record(xs[i], ys[i], i * second);
+        }
+        Assertions.assertTrue(journal.size() <= 8, journal.toString());
+        Assertions.assertEquals(150 * second, journal.time(journal.size() - 1));
+
+        /* Путь восстанавливается с точностью до допуска в каждый момент измерения */
+        for (int i = 0; i <= 150; i++) {
+            int index = journal.indexAt(i * second);
+            double x = journal.x(index);
+            double y = journal.y(index);
+            if (index + 1 < journal.size()) {
+                double ratio = (double) (i * second - journal.time(index)) /
+                        (journal.time(index + 1) - journal.time(index));
+                x += (journal.x(index + 1) - x) * ratio;
+                y += (journal.y(index + 1) - y) * ratio;
+            }
+            Assertions.assertTrue(Math.hypot(x - xs[i], y - ys[i]) <= 1, "point " + i);
+        }
+    }
+
+    @DisplayName("Сжатие журнала перемещений на границе блоков")
+    @Test
+    public void MovementJournalToleranceChunkTest() {
+
+        MovementJournal journal = new MovementJournal();
+        journal.setTolerance(1);
+        /* Зигзаг сохраняется точка в точку, прямой участок сжимается;
+           время каждой точки, нс - её x, умноженный на 1000 */
+        int i = 0;
+        for (; i < 1022; i++) {
+            journal.record(i, (i % 2) * 10, i * 1000L);
+        }
+        for (; journal.size() < 1026; i++) {
+            journal.record(i, 0, i * 1000L);
+        }
+        for (int k = 0; k < 1100; k++, i++) {
+            journal.record(i, (k % 2) * 10, i * 1000L);
+        }
+        /* Первая точка второго блока замещалась, затем блок запечатан */
+        Assertions.assertEquals(2048, journal.getSealedSize());
+        Assertions.assertEquals(journal.x(1024) * 1000, journal.time(1024), 0);
+        Assertions.assertEquals(1024, journal.indexAt(journal.time(1024)));
+        Assertions.assertEquals(1023, journal.indexAt(journal.time(1024) - 1));
+        MovementJournal.Cursor cursor = journal.cursorAt(journal.time(1024));
+        Assertions.assertTrue(cursor.next());
+        Assertions.assertEquals(1024, cursor.index());
+        Assertions.assertEquals(cursor.x() * 1000, cursor.time(), 0);
+        for (int index = 0; index < journal.size(); index++) {
+            Assertions.assertEquals(index, journal.indexAt(journal.time(index)), "point " + index);
+        }
+    }
+
+    @DisplayName("Журнал событий на диске: сегменты и чтение после перезапуска")
+    @Test
+    public void EventLogTest() throws IOException {
+
+        Path directory = Files.createTempDirectory("events");
+        EventLog log = new EventLog(directory, 4);
+        trackingService.setEventLog(log);
+        John.updatePosition(1, 1);
+        trackingService.add(John, lion);
+
+        int john = John.getSensorId();
+        int lionId = lion.getSensorId();
+        long start = EventTime.now() + 1;
+        trackingService.updatePositions(new int[] {john, lionId},
+                new double[] {0, 1}, new double[] {0, 0}, new long[] {start, start}, 2);
+        trackingService.updatePositions(new int[] {john},
+                new double[] {30}, new double[] {0}, new long[] {start + 100}, 1);
+        log.close();
+
+        /* 6 записей в сегментах по 4 */
+        Assertions.assertEquals(6, log.size());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            int segments = 0;
+            for (Path ignored : files) {
+                segments++;
+            }
+            Assertions.assertEquals(2, segments);
+        }
+
+        /* После перезапуска запись продолжается с конца */
+        EventLog reopened = new EventLog(directory, 4);
+        Assertions.assertEquals(6, reopened.size());
+        reopened.fix(lionId, 5, 5, start + 200);
+
+        byte[] types = {EventLog.FIX, EventLog.FIX, EventLog.CONTACT_BEGIN,
+                EventLog.FIX, EventLog.LEAVE, EventLog.CONTACT_END, EventLog.FIX};
+        EventLog.Cursor cursor = reopened.cursor(0);
+        for (byte type : types) {
+            Assertions.assertTrue(cursor.next());
+            Assertions.assertEquals(type, cursor.type());
+        }
+        Assertions.assertFalse(cursor.next());
+        Assertions.assertEquals(lionId, cursor.sensorA());
+        Assertions.assertEquals(5, cursor.x(), 0);
+
+        cursor = reopened.cursor(5);
+        Assertions.assertTrue(cursor.next());
+        Assertions.assertEquals(john, cursor.sensorA());
+        Assertions.assertEquals(lionId, cursor.sensorB());
+        Assertions.assertEquals(start + 100, cursor.time());
+        reopened.close();
+
+        /* Закрытый журнал не принимает записей; сегмент не длиннее 2 ГБ */
+        Assertions.assertThrows(IllegalStateException.class, () -> reopened.fix(lionId, 6, 6, start + 300));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new EventLog(directory, Integer.MAX_VALUE / EventLog.RECORD + 1));
+    }
+
     @DisplayName("Контакт сотрудника и животного")
     @Test
     public void ContactTest() {
@@ -91,6 +273,94 @@ public class TrackingTest {
                 trackingService.getInteractions().toString());
     }
 
+    @DisplayName("Контакт объектов из соседних ячеек сетки")
+    @Test
+    public void NeighbourCellContactTest() {
+
+        trackingService.add(John, lion);
+
+        /* Джон и лев в разных ячейках, но ближе 3 метров друг к другу */
+        John.updatePosition(-0.5, 2.9);
+        lion.updatePosition(0.5, 5.5);
+        trackingService.defineInteractions();
+
+        Assertions.assertEquals(1, trackingService.getCurrentInteractions().size());
+
+        /* Через ячейку контакта быть не может */
+        trackingService = new TrackingService();
+        trackingService.add(John, lion);
+        lion.updatePosition(6.1, 2.9);
+        trackingService.defineInteractions();
+
+        Assertions.assertEquals(0, trackingService.getCurrentInteractions().size());
+    }
+
+    @DisplayName("Пакетное обновление по идентификаторам датчиков")
+    @Test
+    public void SensorBatchTest() {
+
+        trackingService.add(John, lion);
+        int[] ids = {lion.getSensorId(), John.getSensorId(), -5};
+        double[] xs = {3, 4, 0};
+        double[] ys = {5, 5, 0};
+
+        trackingService.updatePositions(ids, xs, ys);
+
+        Assertions.assertEquals(1, trackingService.getCurrentInteractions().size());
+        Assertions.assertEquals(1, trackingService.getUnknownFixes());
+        Assertions.assertSame(lion, trackingService.getTracked(lion.getSensorId()));
+
+        /* Прислал данные только Джон */
+        xs[0] = 9;
+        trackingService.updatePositions(new int[] {John.getSensorId()}, xs, ys);
+
+        Assertions.assertEquals(new Position(3, 5).toString(),
+                lion.getMovements().get(lion.getMovements().size() - 1).toString());
+        Assertions.assertEquals(0, trackingService.getCurrentInteractions().size());
+        Assertions.assertEquals(1, trackingService.getInteractions().size());
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> trackingService.updatePositions(ids, xs, new double[1]));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> trackingService.add(new Animal("двойник", new Date(), lion.getSensorId())));
+        /* За наибольшим идентификатором нет следующего */
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new Animal("последний", new Date(), Integer.MAX_VALUE));
+    }
+
+    @DisplayName("Местоположение хранится в таблице сервиса")
+    @Test
+    public void PositionTableTest() {
+
+        John.updatePosition(1, 2);
+        trackingService.add(John);
+        int handle = trackingService.getHandle(John);
+
+        John.updatePosition(3, 4);
+        Assertions.assertEquals(3, trackingService.getPositionTable().x(handle), 0);
+        Assertions.assertEquals(4, trackingService.getPositionTable().y(handle), 0);
+
+        /* Другой сервис забирает объект себе */
+        TrackingService other = new TrackingService();
+        other.add(John);
+        Assertions.assertEquals(-1, trackingService.getHandle(John));
+        Assertions.assertFalse(trackingService.getTrackable().contains(John));
+        Assertions.assertEquals(3, other.getPositionTable().x(other.getHandle(John)), 0);
+        trackingService.add(John);
+        Assertions.assertEquals(-1, other.getHandle(John));
+
+        /* После снятия отслеживания местоположение остаётся у объекта */
+        trackingService.remove(John);
+        Assertions.assertEquals(-1, trackingService.getHandle(John));
+        Assertions.assertEquals(3, John.getX(), 0);
+        Assertions.assertEquals(4, John.getY(), 0);
+        /* Строка освобождена и достаётся следующему объекту */
+        Assertions.assertEquals(PositionTable.REMOVED, trackingService.getPositionTable().kind(handle));
+        trackingService.add(lion);
+        Assertions.assertEquals(handle, trackingService.getHandle(lion));
+        Assertions.assertSame(lion, trackingService.getPositionTable().tracked(handle));
+    }
+
     @DisplayName("Инициализация прихода и ухода сотрудников")
     @Test
     public void EmployeeActionTest() {
@@ -114,5 +384,14 @@ public class TrackingTest {
         /* Проверяем, внесена ли заметка о том, что Джон вышел из зоопарка */
         Assertions.assertEquals(employeeActions.toString(),
                 trackingService.getEmployeeActions().toString());
+
+        /* Те же записи в виде событий */
+        EmployeeActionJournal journal = trackingService.getEmployeeActionJournal();
+        Assertions.assertEquals(EmployeeAction.Type.ENTER, journal.type(0));
+        Assertions.assertSame(John, journal.employee(0));
+        EmployeeAction left = journal.asList().get(1);
+        Assertions.assertEquals(EmployeeAction.Type.LEAVE, left.getType());
+        Assertions.assertEquals(trackingService.getHandle(John), left.getHandle());
+        Assertions.assertEquals(John.getRow().time(), left.getTime());
     }
 }
@@ -9,6 +9,7 @@ import zoo.Zoo;
 import zoo.animal.Animal;
 import zoo.animal.DiseaseNote;
 import zoo.employee.Employee;
+import zoo.employee.WardInteraction;
 
 import java.time.LocalDate;
 import java.util.*;
@@ -86,4 +87,28 @@ public class BasicTest {
         /* Затем происходит увольнение */
         Assertions.assertEquals(new ArrayList<>(), zoo.getEmployees());
     }
+
+    @DisplayName("Время с подопечными: всего, по животному и по дням")
+    @Test
+    public void WardInteractionTimeTest() {
+        long hour = 60 * 60 * 1000;
+        Date evening = new GregorianCalendar(2020, Calendar.MAY, 1, 23, 0).getTime();
+        Date morning = new GregorianCalendar(2020, Calendar.MAY, 2, 9, 0).getTime();
+
+        /* Ночное дежурство у льва: час первого мая и час второго */
+        John.add(new WardInteraction(lion, evening, new Date(evening.getTime() + 2 * hour)));
+        /* Больше суток с волком */
+        John.add(new WardInteraction(wolf, morning, new Date(morning.getTime() + 25 * hour)));
+
+        Assertions.assertEquals(27 * hour, John.getWardInteractionMillis());
+        Assertions.assertEquals(2 * hour, John.getWardInteractionMillis(lion));
+        Assertions.assertEquals(25 * hour, wolf.getWardInteractionMillis());
+        Assertions.assertEquals(15 * hour, wolf.getWardInteractionMillis(LocalDate.of(2020, 5, 2)));
+        Assertions.assertEquals(10 * hour, wolf.getWardInteractionMillis(LocalDate.of(2020, 5, 3)));
+        Assertions.assertEquals(hour, lion.getWardInteractionMillis(LocalDate.of(2020, 5, 1)));
+        Assertions.assertEquals(hour, John.getWardInteractionMillis(LocalDate.of(2020, 5, 1)));
+        Assertions.assertEquals(16 * hour, John.getWardInteractionMillis(LocalDate.of(2020, 5, 2)));
+        Assertions.assertEquals(10 * hour, John.getWardInteractionMillis(LocalDate.of(2020, 5, 3)));
+        Assertions.assertEquals(0, Jack.getWardInteractionMillis(lion));
+    }
 }